@@ -35,9 +35,17 @@ shift
 goto setArgs
 :doneSetArgs
 
+rem 
+rem Use the class data sharing archive when available (see the 'c-coffee' script) 
+rem 
+set JAVA_OPTS=
+if defined CLOUDCOFFEE_NOCDS goto run
+if exist "%CLOUDCOFFEE_HOME%\c-coffee.jsa" set JAVA_OPTS=-XX:SharedArchiveFile="%CLOUDCOFFEE_HOME%\c-coffee.jsa" -Xshare:auto
+
+:run
 rem 
 rem Invoke the application client
 rem 
-call java -jar "%CLOUDCOFFEE_LIB%" %CMD_LINE_ARGS%
+call java %JAVA_OPTS% -jar "%CLOUDCOFFEE_LIB%" %CMD_LINE_ARGS%
 
 :end
\ No newline at end of file
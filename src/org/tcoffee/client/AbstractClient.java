@@ -4,12 +4,15 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.commons.lang.StringUtils;
 import org.tcoffee.client.cli.CommandLine;
 import org.tcoffee.client.cli.CommandLine.Option;
 import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.util.Http;
+import org.tcoffee.client.util.Retry;
 import org.tcoffee.client.util.Sys;
 import org.tcoffee.client.util.Time;
 
@@ -21,12 +24,17 @@ abstract class AbstractClient {
 
 	protected File propsFile;
 
+	/* the HTTP settings have been applied by a previous command executed in this JVM */
+	private static boolean httpConfigured;
+
 	private String fHost;
 
 	private String fBundle;
 
 	private Integer fPollTimeout;
 
+	private Integer fTimeout;
+
 	private Integer fPollSleep;
 
 	private String fOutPath;
@@ -35,8 +43,20 @@ abstract class AbstractClient {
 
 	private Boolean fIncludeInputDownload;
 
+	private ItemFilter fItemFilter;
+
 	private Boolean fAsync;
 	
+	private ServiceStats fStats;
+	
+	private JobJournal fJournal;
+	
+	private ResultCache fCache;
+	
+	private HostRouter fRouter;
+	
+	private Integer fHedge;
+	
 	
 	/*
 	 * try to fetch the configuration value following the order 
@@ -165,6 +185,19 @@ abstract class AbstractClient {
 		return result;
 	}
 	
+	/**
+	 * A client file saved next to the application properties file e.g. <code>~/.c-coffee.stats</code> 
+	 * 
+	 * @param suffix the file name suffix 
+	 */
+	File configFile( String suffix ) { 
+		return new File( propsFile.getAbsoluteFile().getParentFile(), propsFile.getName() + "." + suffix );
+	}
+	
+	JobJournal getJournal() { 
+		return fJournal;
+	}
+	
 	/**
 	 * Save the current properties 
 	 */
@@ -185,7 +218,7 @@ abstract class AbstractClient {
 		 */
 		if( cmd.hasOption("ver") ) { 
 			Sys.println(Sys.appver.toString());
-			System.exit(0);
+			Sys.exit(0);
 		}
 		
 		/* 
@@ -194,7 +227,7 @@ abstract class AbstractClient {
 		Sys.print("%s - rel %s\n", Sys.appname, Sys.appver);
 		if( cmd.isEmpty() || cmd.hasOption("help")  ) { 
 			Sys.println(cmd.usage());
-			System.exit(0);
+			Sys.exit(0);
 		}		
 		
 	}
@@ -207,12 +240,70 @@ abstract class AbstractClient {
 	protected void configureClient() {
 		fHost = param("host");
 		fBundle = param("bundle");
+		
+		/* more comma separated hosts are mirrors of the same service */
+		List<String> hosts = HostRouter.parse(fHost);
+		if( hosts.size() > 1 ) { 
+			fHost = hosts.get(0);
+			fRouter = new HostRouter(hosts, fBundle);
+			fRouter.startOnDemand();
+		}
+
 		fPollTimeout = paramAsDuration("poll-timeout");
+		fTimeout = paramAsDuration("timeout");
 		fPollSleep = paramAsDuration("poll-sleep");
 		fOutPath = param("out-path");
 		fFlatPath = paramAsBool("flat-path");
 		fIncludeInputDownload = cmd.hasOption("include-input");
+		fItemFilter = new ItemFilter(param("include"), param("exclude"));
 		fAsync = cmd.hasOption("async");
+		/* the files are read on first use and the mirror checks start with the first submission, not on a ping */
+		fStats = new ServiceStats( configFile("stats") );
+		fJournal = new JobJournal( configFile("journal") );
+		fCache = cmd.hasOption("no-cache") ? null : new ResultCache( configFile("cache") );
+		fHedge = paramAsInt("hedge");
+		configureHttp();
+	}
+	
+	/*
+	 * the connections pool limits, the connect and read timeouts, the max number of attempts of a failing request 
+	 * and the uploads compression can be defined in the properties file. They are JVM wide, so they are applied 
+	 * once: the commands executed concurrently by an agent share the same connections pool 
+	 */
+	void configureHttp() { 
+		synchronized( AbstractClient.class ) { 
+			if( httpConfigured ) return;
+			httpConfigured = true;
+		}
+		
+		try { 
+			String attempts = props.getProperty("http-max-attempts");
+			if( StringUtils.isNotEmpty(attempts) ) { 
+				Retry current = Http.getDefaultRetry();
+				Http.setDefaultRetry( new Retry(Integer.parseInt(attempts.trim()), current.getBaseDelayMillis(), current.getMaxDelayMillis()) );
+			}
+			
+			String total = props.getProperty("http-max-connections");
+			String perRoute = props.getProperty("http-max-per-route");
+			if( StringUtils.isNotEmpty(total) || StringUtils.isNotEmpty(perRoute) ) { 
+				Http.setConnectionLimits( 
+						StringUtils.isNotEmpty(total) ? Integer.parseInt(total.trim()) : 40, 
+						StringUtils.isNotEmpty(perRoute) ? Integer.parseInt(perRoute.trim()) : 20 );
+			}
+			
+			Http.setGzipUploads( "true".equalsIgnoreCase(StringUtils.trim(props.getProperty("http-gzip-upload"))) );
+			
+			String connect = props.getProperty("http-connect-timeout");
+			String read = props.getProperty("http-read-timeout");
+			if( StringUtils.isNotEmpty(connect) || StringUtils.isNotEmpty(read) ) { 
+				Http.setTimeouts( 
+						StringUtils.isNotEmpty(connect) ? Time.parseDuration(connect.trim()) * 1000 : Http.getConnectTimeoutMillis(), 
+						StringUtils.isNotEmpty(read) ? Time.parseDuration(read.trim()) * 1000 : Http.getReadTimeoutMillis() );
+			}
+		}
+		catch( IllegalArgumentException e ) { 
+			Sys.debug("Invalid connection settings: %s", e.getMessage());
+		}
 	}
 
 	
@@ -226,6 +317,9 @@ abstract class AbstractClient {
 		if( fPollTimeout != null ) { 
 			client.setPollTimeoutSecs(fPollTimeout);
 		}
+		if( fTimeout != null ) { 
+			client.setTimeoutSecs(fTimeout);
+		}
 		if( fPollSleep != null ) { 
 	 		client.setPollSleepSecs(fPollSleep);
 		}
@@ -241,10 +335,43 @@ abstract class AbstractClient {
 			client.setIncludeInpoutDownload(fIncludeInputDownload);
 		}
 		
+		if( fItemFilter != null && !fItemFilter.isEmpty() ) { 
+			client.setItemFilter(fItemFilter);
+		}
+		
 		if( fAsync != null ) { 
 			client.setAsync(fAsync);
 		}
 		
+		if( fStats != null ) { 
+			client.setServiceStats(fStats);
+		}
+		
+		if( fJournal != null ) { 
+			client.setJournal(fJournal);
+		}
+		
+		if( fCache != null ) { 
+			client.setResultCache(fCache);
+		}
+		
+		if( fRouter != null ) { 
+			client.setRouter(fRouter);
+		}
+		
+		if( fHedge != null ) { 
+			client.setHedgePercentile(fHedge);
+		}
+		
+		if( StringUtils.isNotEmpty(props.getProperty("download-parallelism")) ) { 
+			try { 
+				client.setDownloadParallelism( Integer.parseInt(props.getProperty("download-parallelism").trim()) );
+			}
+			catch( NumberFormatException e ) { 
+				Sys.debug("Invalid download parallelism: %s", e.getMessage());
+			}
+		}
+		
 		return client;
 	}	
 
@@ -257,7 +384,12 @@ abstract class AbstractClient {
 		
 		configureClient();
 		
-		run();
+		try { 
+			run();
+		}
+		finally { 
+			if( fRouter != null ) fRouter.shutdown();
+		}
 		
 	}
 
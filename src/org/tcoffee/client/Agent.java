@@ -0,0 +1,434 @@
+package org.tcoffee.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.util.DaemonThreadFactory;
+import org.tcoffee.client.util.Logging;
+import org.tcoffee.client.util.Retry;
+import org.tcoffee.client.util.Sys;
+
+/**
+ * A long running local process executing the commands forwarded by the <code>c-coffee</code>
+ * invocations, so that they do not pay the JVM startup and reuse the warm HTTP connections pool.
+ * <p>
+ * The agent listens on a loopback port that is published, together with a random access token and
+ * its working directory, in the file <code>~/.c-coffee.agent</code>. Since the relative paths on the
+ * command line are resolved against the agent working directory, the commands are forwarded only
+ * when entered in the same directory, otherwise they are executed in-process as usual.
+ * <p>
+ * Each command is executed by its own thread as soon as it is received, with its own output stream and
+ * quiet/debug settings (see {@link Sys#redirect(PrintStream)}). The command is executed only after the
+ * client has confirmed it is still waiting for it, so that a client that timed out on a busy agent can
+ * safely execute the command in-process instead.
+ *
+ */
+public class Agent {
+
+	private static Logger log = LoggerFactory.getLogger(Agent.class);
+
+	/** Max time (millis) to connect the agent before falling back to the in-process execution */
+	static final int CONNECT_TIMEOUT = 500;
+
+	/** Max time (millis) for a client to send its command */
+	static final int REQUEST_TIMEOUT = 5000;
+
+	/** Max time (millis) the client waits for the agent to accept a command before executing it in-process */
+	static final int ACCEPT_TIMEOUT = 2000;
+
+	/* sent by the agent when a command has been received, before the command output frames */
+	static final int ACK = -2;
+
+	/** The command line that stops the agent */
+	static final String STOP = "--agent=stop";
+
+	private final File file;
+
+	private ServerSocket server;
+
+	private String token;
+
+	private volatile boolean stopped;
+
+	private ExecutorService workers;
+
+	public Agent( File file ) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the agent file next to the application properties file i.e. <code>~/.c-coffee.agent</code>
+	 */
+	public static File defaultFile() {
+		String name = "." + Sys.appbin + ".agent";
+		String home = System.getProperty("user.home");
+		return home != null ? new File(home,name) : new File(name);
+	}
+
+	/**
+	 * Find the value of the <code>--agent</code> option without parsing the whole command line
+	 *
+	 * @return <code>null</code> when the option is not specified, the empty string when it has no value
+	 */
+	static String option( String[] args ) {
+		for( String arg : args ) {
+			if( "--agent".equals(arg) ) return "";
+			if( arg.startsWith("--agent=") ) return arg.substring(8);
+		}
+		return null;
+	}
+
+	/**
+	 * Open the agent socket and publish its address
+	 */
+	public void start() throws IOException {
+		if( isRunning(file) ) {
+			throw new ClientException("An agent is already running, stop it with the command: %s %s", Sys.appbin, STOP);
+		}
+
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		token = UUID.randomUUID().toString();
+
+		Properties props = new Properties();
+		props.setProperty("port", String.valueOf(server.getLocalPort()));
+		props.setProperty("token", token);
+		props.setProperty("cwd", System.getProperty("user.dir"));
+
+		/* the token grants access to the user account, only the owner can read it */
+		File temp = new File(file.getPath() + ".tmp");
+		temp.delete();
+		temp.createNewFile();
+		temp.setReadable(false, false);
+		temp.setReadable(true, true);
+		temp.setWritable(false, false);
+		temp.setWritable(true, true);
+
+		Writer writer = new FileWriter(temp);
+		try {
+			props.store(writer, null);
+		}
+		finally {
+			writer.close();
+		}
+
+		file.delete();
+		if( !temp.renameTo(file) ) {
+			throw new ClientException("Unable to create agent file: %s", file);
+		}
+		log.info("Agent listening on port {}", server.getLocalPort());
+	}
+
+	/**
+	 * Serve the forwarded commands until the agent is stopped
+	 */
+	public void serve() {
+		/* the debug option of a command does not change the log level of the other ones */
+		Logging.perThread();
+		workers = Executors.newCachedThreadPool(new DaemonThreadFactory("agent-command"));
+		try {
+			while( !stopped ) {
+				final Socket socket = server.accept();
+				workers.execute( new Runnable() {
+					public void run() {
+						serve(socket);
+					}} );
+			}
+		}
+		catch( IOException e ) {
+			if( !stopped ) throw new ClientException(e, "Agent terminated with error");
+		}
+		finally {
+			stop();
+			awaitCommands();
+		}
+	}
+
+	/*
+	 * no more commands are accepted, let the running ones complete
+	 */
+	private void awaitCommands() {
+		workers.shutdown();
+		try {
+			while( !workers.awaitTermination(1, TimeUnit.MINUTES) ) {
+				log.debug("Agent waiting for the running commands to complete");
+			}
+		}
+		catch( InterruptedException e ) {
+			workers.shutdownNow();
+		}
+	}
+
+	void serve( Socket socket ) {
+		try {
+			handle(socket);
+		}
+		catch( EOFException e ) {
+			/* a connection just probing the agent, or a client that gave up waiting */
+			log.debug("Agent connection closed by the client");
+		}
+		catch( IOException e ) {
+			log.warn("Error serving agent request: {}", e.getMessage());
+		}
+		finally {
+			try { socket.close(); } catch( IOException e ) { log.debug("Error closing agent connection", e); }
+		}
+	}
+
+	/**
+	 * Stop accepting commands and remove the agent file
+	 */
+	public void stop() {
+		stopped = true;
+		file.delete();
+		try {
+			if( server != null ) server.close();
+		}
+		catch( IOException e ) {
+			log.debug("Error closing agent socket", e);
+		}
+	}
+
+	void handle( Socket socket ) throws IOException {
+		socket.setSoTimeout(REQUEST_TIMEOUT);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		if( !token.equals(in.readUTF()) ) {
+			log.warn("Agent request rejected, invalid access token");
+			return;
+		}
+
+		String[] args = new String[in.readInt()];
+		for( int i=0; i<args.length; i++ ) {
+			args[i] = in.readUTF();
+		}
+
+		/* the command is executed only when the client confirms it is still waiting for it */
+		out.writeInt(ACK);
+		out.flush();
+		in.readBoolean();
+		socket.setSoTimeout(0);
+
+		int code;
+		if( args.length == 1 && STOP.equals(args[0]) ) {
+			/* the running commands are not waited for */
+			log.info("Agent stopped");
+			stop();
+			code = 0;
+		}
+		else {
+			FrameOutputStream frames = new FrameOutputStream(out);
+			code = execute(args, new PrintStream(frames, true));
+			frames.close();
+		}
+
+		out.writeInt(-1);
+		out.writeInt(code);
+		out.flush();
+	}
+
+	/*
+	 * execute the command as the 'c-coffee' main would do, printing to the specified console
+	 */
+	int execute( String[] args, PrintStream console ) {
+		Sys.redirect(console);
+		try {
+			new CloudCoffee(args).execute();
+			return 0;
+		}
+		catch( Sys.ExitException e ) {
+			return e.code;
+		}
+		catch( Exception e ) {
+			log.debug("Agent command failed", e);
+			console.println(e.getMessage());
+			return 1;
+		}
+		finally {
+			Sys.debug("HTTP %s", Retry.metrics());
+			console.flush();
+			Sys.redirect(null);
+		}
+	}
+
+	/**
+	 * Forward the command to the agent and print its output to the specified console
+	 *
+	 * @return the command exit status, or <code>null</code> when there is no agent that can execute it or
+	 * it does not accept the command within {@link #ACCEPT_TIMEOUT} milliseconds
+	 */
+	public static Integer forward( File file, String[] args, PrintStream console ) {
+		Properties props = read(file);
+		if( props == null ) {
+			return null;
+		}
+
+		if( !System.getProperty("user.dir").equals(props.getProperty("cwd")) && !(args.length == 1 && STOP.equals(args[0])) ) {
+			log.debug("Agent running in a different directory: {}", props.getProperty("cwd"));
+			return null;
+		}
+
+		Socket socket = connect(props);
+		if( socket == null ) {
+			return null;
+		}
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(props.getProperty("token"));
+			out.writeInt(args.length);
+			for( String arg : args ) {
+				out.writeUTF(arg);
+			}
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			socket.setSoTimeout(ACCEPT_TIMEOUT);
+			try {
+				if( in.readInt() != ACK ) {
+					log.debug("Unexpected agent reply");
+					return null;
+				}
+			}
+			catch( SocketTimeoutException e ) {
+				log.debug("The agent did not accept the command in {} ms", ACCEPT_TIMEOUT);
+				return null;
+			}
+
+			/* from now on the command is executed by the agent, the client waits for it to complete */
+			out.writeBoolean(true);
+			out.flush();
+			socket.setSoTimeout(0);
+
+			byte[] buffer = new byte[8192];
+			int len;
+			while( (len=in.readInt()) >= 0 ) {
+				if( len > buffer.length ) buffer = new byte[len];
+				in.readFully(buffer, 0, len);
+				console.write(buffer, 0, len);
+				console.flush();
+			}
+			return in.readInt();
+		}
+		catch( IOException e ) {
+			throw new ClientException(e, "Connection to the agent lost");
+		}
+		finally {
+			try { socket.close(); } catch( IOException e ) { log.debug("Error closing agent connection", e); }
+		}
+	}
+
+	/**
+	 * @return <code>true</code> when an agent accepts connections on the address published in the specified file
+	 */
+	static boolean isRunning( File file ) {
+		Properties props = read(file);
+		Socket socket = props != null ? connect(props) : null;
+		if( socket == null ) {
+			return false;
+		}
+
+		try { socket.close(); } catch( IOException e ) { log.debug("Error closing agent connection", e); }
+		return true;
+	}
+
+	private static Properties read( File file ) {
+		if( !file.exists() ) {
+			return null;
+		}
+
+		Properties result = new Properties();
+		try {
+			Reader reader = new FileReader(file);
+			try {
+				result.load(reader);
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch( IOException e ) {
+			log.debug("Unable to read agent file: {}", file);
+			return null;
+		}
+
+		return result.getProperty("port") != null && result.getProperty("token") != null ? result : null;
+	}
+
+	private static Socket connect( Properties props ) {
+		Socket socket = new Socket();
+		try {
+			int port = Integer.parseInt(props.getProperty("port"));
+			socket.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), CONNECT_TIMEOUT);
+			return socket;
+		}
+		catch( Exception e ) {
+			/* a stale agent file */
+			log.debug("Agent not available: {}", e.getMessage());
+			try { socket.close(); } catch( IOException x ) { /* ignore */ }
+			return null;
+		}
+	}
+
+	/*
+	 * write the command output as length prefixed chunks, the output still printed by the threads
+	 * created during the command after it has been completed is discarded
+	 */
+	static class FrameOutputStream extends OutputStream {
+
+		final DataOutputStream target;
+
+		private boolean closed;
+
+		FrameOutputStream( DataOutputStream target ) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if( closed || len == 0 ) return;
+			target.writeInt(len);
+			target.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			if( !closed ) target.flush();
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+		}
+	}
+
+}
@@ -0,0 +1,493 @@
+package org.tcoffee.client;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.entity.mime.MultipartEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.data.ResponseData;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.ResultItemData;
+import org.tcoffee.client.data.SubmitData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.exception.HttpResponseException;
+import org.tcoffee.client.exception.IncompleteDownloadException;
+import org.tcoffee.client.exception.WaitResultTimeout;
+import org.tcoffee.client.exception.XmlResponseException;
+import org.tcoffee.client.util.DaemonThreadFactory;
+import org.tcoffee.client.util.Http;
+import org.tcoffee.client.util.KeyValue;
+import org.tcoffee.client.util.ResultFuture;
+import org.tcoffee.client.util.Retry;
+import org.tcoffee.client.util.XML;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.Request.EntityWriter;
+import com.ning.http.client.Response;
+
+/**
+ * T-Coffee remote client returning futures instead of blocking the caller.
+ * <p>
+ * Requests are executed by the <i>async-http-client</i> library and the wait between two result polls
+ * is scheduled on a timer, so that no thread is held while a job is running on the server.
+ * <p>
+ * Note that the client is not non-blocking with the bundled libraries: the Netty provider, which uses
+ * non-blocking I/O, is used only when Netty is available on the classpath, otherwise the library falls back
+ * on the JDK provider, which blocks a thread of the client pool for each request in progress. So at most
+ * <code>maxConnections</code> requests are transferring data at the same time, the others are queued.
+ *
+ */
+public class AsyncTCoffeeClient extends TCoffeeClient {
+
+	private static Logger log = LoggerFactory.getLogger(AsyncTCoffeeClient.class);
+
+	static final String NETTY_PROVIDER = "com.ning.http.client.providers.netty.NettyAsyncHttpProvider";
+
+	static final String JDK_PROVIDER = "com.ning.http.client.providers.jdk.JDKAsyncHttpProvider";
+
+	private AsyncHttpClient async;
+
+	private ExecutorService workers;
+
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Create the client using at most 10 concurrent connections
+	 *
+	 * @param host
+	 * @param bundle
+	 */
+	public AsyncTCoffeeClient( String host, String bundle ) {
+		this(host, bundle, 10);
+	}
+
+	/**
+	 * The client constructor
+	 *
+	 * @param host the remote host
+	 * @param bundle the remote bundle
+	 * @param maxConnections the max number of requests executed at the same time
+	 */
+	public AsyncTCoffeeClient( String host, String bundle, int maxConnections ) {
+		super(host, bundle);
+
+		workers = Executors.newFixedThreadPool(maxConnections, new DaemonThreadFactory("async-http"));
+		timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("async-poll"));
+
+		AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+				.setMaximumConnectionsTotal(maxConnections)
+				.setMaximumConnectionsPerHost(maxConnections)
+				.setExecutorService(workers)
+				.setScheduledExecutorService(timer)
+				.build();
+
+		String provider = isNettyAvailable() ? NETTY_PROVIDER : JDK_PROVIDER;
+		log.debug("Using async http provider: {}", provider);
+		async = new AsyncHttpClient(provider, config);
+	}
+
+	static boolean isNettyAvailable() {
+		try {
+			Class.forName("org.jboss.netty.channel.Channel");
+			return true;
+		}
+		catch( ClassNotFoundException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Submit the alignment request
+	 *
+	 * @param cmdline the T-Coffee command line
+	 * @param files the files to upload
+	 * @return the future {@link SubmitData} job information
+	 */
+	public ResultFuture<SubmitData> submitAsync( String cmdline, List<File> files ) {
+		return post( urlFor("run"), runParams(cmdline, files), new ResponseHandler<SubmitData>() {
+			SubmitData handle(ResponseData response) {
+				return response.submit;
+			}} );
+	}
+
+	/**
+	 * Submit the execution of the specified program
+	 *
+	 * @param program the program to run
+	 * @param params the program parameters
+	 * @return the future {@link SubmitData} job information
+	 */
+	public ResultFuture<SubmitData> submitProgramAsync( String program, List<KeyValue> params ) {
+		return post( urlFor("submit", new KeyValue("name", program)), params, new ResponseHandler<SubmitData>() {
+			SubmitData handle(ResponseData response) {
+				return response.submit;
+			}} );
+	}
+
+	/**
+	 * Query the status of the specified request
+	 *
+	 * @param requestId the request unique identifier
+	 * @return the future request status
+	 */
+	public ResultFuture<ResultData> getResultAsync( String requestId ) {
+		return get( urlFor("result", new KeyValue("rid", requestId)), new ResponseHandler<ResultData>() {
+			ResultData handle(ResponseData response) {
+				return response.result;
+			}} );
+	}
+
+	/**
+	 * Poll the server until the specified request is not running anymore. Between two polls no thread is
+	 * held, the next poll is scheduled on the client timer.
+	 *
+	 * @param requestId the request unique identifier
+	 * @return the future of the final request status. It fails with {@link WaitResultTimeout} if the request
+	 * does not complete before the poll timeout
+	 */
+	public ResultFuture<ResultData> waitForResultAsync( String requestId ) {
+		ResultFuture<ResultData> future = new ResultFuture<ResultData>();
+		poll(requestId, System.currentTimeMillis(), 0, future);
+		return future;
+	}
+
+	void poll( final String requestId, final long begin, final long delay, final ResultFuture<ResultData> future ) {
+		if( future.isDone() ) {
+			return;
+		}
+
+		get( urlFor("result", new KeyValue("rid", requestId)), new ResponseHandler<ResultData>(future) {
+
+			ResultData handle(ResponseData response) {
+				return response.result;
+			}
+
+			/*
+			 * complete the future when the request is not running anymore, otherwise schedule the next poll 
+			 */
+			@Override
+			void complete(ResultData result) {
+				long waited = System.currentTimeMillis()-begin;
+				if( !result.isStatusRUNNING() ) {
+					recordResult(requestId, result);
+					future.set(result);
+				}
+				else if( waited > getPollTimeoutSecs()*1000L ) {
+					future.setException(new WaitResultTimeout("The submitted request does not complete in the expected time"));
+				}
+				else {
+					final long next = nextPollDelay(result, waited, delay);
+					timer.schedule(new Runnable() {
+						public void run() {
+							poll(requestId, begin, next, future);
+						}}, next, TimeUnit.MILLISECONDS);
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Download all the result items following the same rules of the blocking client
+	 *
+	 * @param result the request result
+	 * @return the future list of downloaded files
+	 */
+	public ResultFuture<List<File>> downloadResultItemsAsync( ResultData result ) {
+		final ResultFuture<List<File>> future = new ResultFuture<List<File>>();
+		final List<File> files = new ArrayList<File>();
+
+		final List<ResultItemData> items = new ArrayList<ResultItemData>();
+		if( result != null && result.items != null ) for( ResultItemData item : result.items ) {
+			if( isDownloadable(item) ) items.add(item);
+		}
+
+		if( items.size() == 0 ) {
+			future.set(files);
+			return future;
+		}
+
+		final AtomicInteger count = new AtomicInteger(items.size());
+		for( final ResultItemData item : items ) {
+			final File target = targetFor(item);
+			final ResultFuture<File> download = getFile(itemUrl(item), target);
+			download.addListener(new Runnable() {
+				public void run() {
+					try {
+						download.get();
+						checkResultLog(item, target);
+						synchronized (files) { files.add(target); }
+					}
+					catch( Exception e ) {
+						future.setException( e.getCause() != null ? e.getCause() : e );
+					}
+
+					if( count.decrementAndGet() == 0 ) {
+						future.set(files);
+					}
+				}} );
+		}
+
+		return future;
+	}
+
+	/**
+	 * Download the specified resource writing the response body parts to the target file as they are received.
+	 * <p>
+	 * As the blocking client does, the content is written to the target <code>.part</code> file, which is renamed
+	 * to the target when complete. When the connection drops, the download is retried following the client
+	 * {@link Retry} policy, requesting only the missing bytes by a <code>Range</code> header.
+	 *
+	 * @param uri the resource to download
+	 * @param target the file where to save it
+	 * @return the future target file
+	 */
+	public ResultFuture<File> getFile( final String uri, final File target ) {
+		ResultFuture<File> future = new ResultFuture<File>();
+		download(uri, target, 1, future);
+		return future;
+	}
+
+	void download( final String uri, final File target, final int attempt, final ResultFuture<File> future ) {
+		final File part = new File(target.getPath() + Http.PART_SUFFIX);
+		final long offset = part.exists() ? part.length() : 0;
+
+		AsyncHandler<File> handler = new AsyncHandler<File>() {
+
+			OutputStream out;
+
+			int code;
+
+			long expected = -1;
+
+			long count;
+
+			public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+				code = status.getStatusCode();
+				if( code >= 400 && code != 416 ) {
+					throw new HttpResponseException(code, "The server returned an error: %s - %s [%s]",
+							code,
+							status.getStatusText(),
+							uri);
+				}
+				return STATE.CONTINUE;
+			}
+
+			public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+				if( code == 416 ) {
+					/* the range is not satisfiable: the partial file is already complete or it is not valid anymore */
+					String range = headers.getHeaders().getFirstValue("Content-Range");
+					if( range != null && range.endsWith("/" + offset) ) {
+						completed(target, part, future);
+						return STATE.ABORT;
+					}
+					part.delete();
+					throw new IncompleteDownloadException("Partial file discarded: %s", part);
+				}
+
+				String length = headers.getHeaders().getFirstValue("Content-Length");
+				if( length != null && headers.getHeaders().getFirstValue("Content-Encoding") == null ) {
+					expected = Long.parseLong(length.trim());
+				}
+
+				/* the server does not support ranges, start from scratch */
+				out = new BufferedOutputStream(new FileOutputStream(part, code == 206));
+				return STATE.CONTINUE;
+			}
+
+			public STATE onBodyPartReceived(HttpResponseBodyPart part) throws Exception {
+				count += part.writeTo(out);
+				return STATE.CONTINUE;
+			}
+
+			public File onCompleted() throws Exception {
+				close();
+				if( future.isDone() ) {
+					return target;
+				}
+				if( expected >= 0 && count < expected ) {
+					onThrowable(new IncompleteDownloadException("Received %s of %s bytes", count, expected));
+					return null;
+				}
+				completed(target, part, future);
+				return target;
+			}
+
+			public void onThrowable(Throwable t) {
+				/* keep the content received before the error */
+				close();
+				Throwable e = unwrap(t);
+				if( !future.isDone() ) {
+					retry(uri, target, attempt, e, future);
+				}
+			}
+
+			void close() {
+				try { if( out != null ) out.close(); } catch( IOException e ) { log.debug("Error closing file: {}", part); }
+				out = null;
+			}
+		};
+
+		try {
+			BoundRequestBuilder get = async.prepareGet(uri);
+			if( offset > 0 ) {
+				get.setHeader("Range", "bytes=" + offset + "-");
+			}
+			get.execute(handler);
+		}
+		catch( IOException e ) {
+			retry(uri, target, attempt, e, future);
+		}
+	}
+
+	/*
+	 * the download is complete, replace the target file
+	 */
+	void completed( File target, File part, ResultFuture<File> future ) {
+		if( !part.renameTo(target) && !(target.delete() && part.renameTo(target)) ) {
+			future.setException( new ClientException("Unable to rename '%s' to '%s'", part, target) );
+		}
+		else {
+			future.set(target);
+		}
+	}
+
+	/*
+	 * schedule the next attempt of a failed download on the client timer, or fail the download
+	 */
+	void retry( final String uri, final File target, final int attempt, Throwable error, final ResultFuture<File> future ) {
+		Retry retry = http.getRetry();
+		if( attempt < retry.getMaxAttempts() && Retry.isRetryable(error, true) ) {
+			long delay = retry.delay(attempt);
+			log.debug("Retrying download [{}] in {} ms: {}", new Object[] { uri, delay, error.getMessage() });
+			timer.schedule(new Runnable() {
+				public void run() {
+					download(uri, target, attempt+1, future);
+				}}, delay, TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		future.setException( error instanceof ClientException && !(error instanceof IncompleteDownloadException)
+				? error
+				: new ClientException(error, "Unable to download file resource [%s] to '%s'", uri, target) );
+	}
+
+	/**
+	 * Release the connections and threads used by this client
+	 */
+	public void close() {
+		async.close();
+		timer.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	<T> ResultFuture<T> get( String uri, ResponseHandler<T> handler ) {
+		try {
+			async.prepareGet(uri).execute(handler);
+		}
+		catch( IOException e ) {
+			handler.future.setException( new HttpResponseException(e, "The server returned with an unexpected condition [%s]", uri) );
+		}
+		return handler.future;
+	}
+
+	<T> ResultFuture<T> post( String uri, List<KeyValue> pairs, ResponseHandler<T> handler ) {
+		try {
+			/* 
+			 * the multipart body is written by the same entity used by the blocking client, 
+			 * the provider own multipart support requires Netty 
+			 */
+			final MultipartEntity entity = Http.multipart(pairs);
+			BoundRequestBuilder post = async.preparePost(uri)
+				.setHeader("Content-Type", entity.getContentType().getValue())
+				.setBody(new EntityWriter() {
+					public void writeEntity(OutputStream out) throws IOException {
+						entity.writeTo(out);
+					}}, entity.getContentLength());
+
+			post.execute(handler);
+		}
+		catch( IOException e ) {
+			handler.future.setException( new HttpResponseException(e, "Error posting data [%s]", uri) );
+		}
+		return handler.future;
+	}
+
+	/**
+	 * Parse the XML server response and check it does not report an error condition,
+	 * before handling it to the concrete implementation. The outcome completes the handler future. 
+	 */
+	abstract class ResponseHandler<T> extends AsyncCompletionHandler<T> {
+
+		final ResultFuture<T> future;
+		
+		ResponseHandler() { 
+			this(new ResultFuture<T>());
+		}
+		
+		ResponseHandler( ResultFuture<T> future ) { 
+			this.future = future;
+		}
+		
+		@Override
+		public T onCompleted(Response response) throws Exception {
+			ResponseData data;
+			try {
+				data = XML.fromXML(response.getResponseBodyAsStream());
+			}
+			catch( Exception e ) {
+				if( response.getStatusCode() >= 400 ) {
+					throw new HttpResponseException(response.getStatusCode(), "The server returned an error: %s - %s [%s]",
+							response.getStatusCode(),
+							response.getStatusText(),
+							response.getUri());
+				}
+				throw new XmlResponseException(e,"Invalid XML server response [%s]", response.getUri());
+			}
+
+			checkResponse(data);
+			T result = handle(data);
+			complete(result);
+			return result;
+		}
+		
+		@Override
+		public void onThrowable(Throwable t) {
+			future.setException( unwrap(t) );
+		}
+
+		abstract T handle( ResponseData response );
+		
+		void complete( T result ) { 
+			future.set(result);
+		}
+	}
+	
+	/*
+	 * the providers wrap the exceptions raised by the handlers, return the original client exception
+	 */
+	static Throwable unwrap( Throwable t ) { 
+		for( Throwable e = t; e != null; e = e.getCause() ) { 
+			if( e instanceof ClientException ) return e;
+		}
+		return t;
+	}
+
+}
@@ -0,0 +1,332 @@
+package org.tcoffee.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.tcoffee.client.cli.CommandLineWithFiles;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.util.DaemonThreadFactory;
+import org.tcoffee.client.util.ResultFuture;
+import org.tcoffee.client.util.Sys;
+
+/**
+ * Submit many alignment requests from the same process keeping a fixed number of jobs in flight.
+ * <p>
+ * Each job is submitted and downloaded by its own {@link TCoffeeClient} instance, provided by a {@link ClientFactory},
+ * and its result files are downloaded in a folder named as the request ID under the client output path.
+ * Jobs having already a request ID are not submitted again, the batch only waits for them and downloads
+ * the missing result files (see {@link #resume(List)}).
+ *
+ */
+public class BatchClient {
+
+	/**
+	 * Provides a new configured client instance for each batch job
+	 */
+	public interface ClientFactory {
+		TCoffeeClient create();
+	}
+
+	/**
+	 * Hold the status of a single job in the batch
+	 */
+	static public class Job {
+
+		/** The job index in the batch, starting from 1 */
+		public int index;
+
+		/** The T-Coffee command line */
+		public String cmdline;
+
+		/** The files to upload */
+		public List<File> files;
+
+		/** The request ID assigned by the server, null if not submitted yet */
+		public String requestId;
+
+		/** The host that accepted the request, null to use the client default */
+		public String host;
+
+		/** The folder where the result files are downloaded */
+		public File outpath;
+
+		/** The job result, null if it did not complete */
+		public ResultData result;
+
+		/** The error raised processing this job, if any */
+		public Throwable error;
+
+		public Job( String cmdline, List<File> files ) {
+			this.cmdline = cmdline;
+			this.files = files;
+		}
+
+		public boolean isDone() {
+			return error == null && result != null && result.isStatusDONE();
+		}
+
+		@Override
+		public String toString() {
+			return "Job [index=" + index + ", requestId=" + requestId + ", cmdline=" + cmdline + "]";
+		}
+	}
+
+	private ClientFactory factory;
+
+	private int concurrency = 4;
+
+	public BatchClient( ClientFactory factory ) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Parse a batch manifest file. Each non empty row defines a job using the same syntax
+	 * of the client command line arguments i.e. files have to be prefixed with the <code>file:</code> string.
+	 * The arguments are separated by blanks, an argument containing blanks can be enclosed, or just partially
+	 * enclosed, in single or double quotes e.g. <code>-in="file:my sequences.fa"</code>.
+	 * Rows starting with the <code>#</code> character are ignored.
+	 *
+	 * @param manifest the file to parse
+	 * @return the list of jobs defined in the file
+	 */
+	public static List<Job> parseManifest( File manifest ) {
+		if( manifest == null || !manifest.exists() ) {
+			throw new ClientException("The specified batch manifest file does not exist: %s", manifest);
+		}
+
+		List<Job> result = new ArrayList<Job>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "utf-8"));
+			String line;
+			while( (line=reader.readLine()) != null ) {
+				line = line.trim();
+				if( line.length()==0 || line.startsWith("#") ) {
+					continue;
+				}
+
+				CommandLineWithFiles cmd = new CommandLineWithFiles();
+				cmd.parse( tokenize(line) );
+				result.add( new Job(cmd.getArgumentsString(), cmd.getArgumentsFiles()) );
+			}
+		}
+		catch( IOException e ) {
+			throw new ClientException(e, "Unable to read batch manifest file: %s", manifest);
+		}
+		finally {
+			try { if( reader != null ) reader.close(); } catch( IOException e ) { Sys.debug(e); }
+		}
+
+		return result;
+	}
+
+	/*
+	 * split a manifest row into its arguments, the quotes group the blanks they enclose and they are removed
+	 */
+	static String[] tokenize( String line ) {
+		List<String> result = new ArrayList<String>();
+		StringBuilder arg = new StringBuilder();
+		boolean empty = true;
+		char quote = 0;
+
+		for( int i=0; i<line.length(); i++ ) {
+			char ch = line.charAt(i);
+			if( quote != 0 ) {
+				if( ch == quote ) quote = 0; else arg.append(ch);
+			}
+			else if( ch == '"' || ch == '\'' ) {
+				quote = ch;
+				empty = false;
+			}
+			else if( Character.isWhitespace(ch) ) {
+				if( !empty ) result.add(arg.toString());
+				arg.setLength(0);
+				empty = true;
+			}
+			else {
+				arg.append(ch);
+				empty = false;
+			}
+		}
+
+		if( quote != 0 ) {
+			throw new ClientException("Missing closing quote in batch manifest row: %s", line);
+		}
+		if( !empty ) result.add(arg.toString());
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Run all the specified jobs, keeping at most {@link #getConcurrency()} jobs in flight at the same time.
+	 * <p>
+	 * Jobs are submitted by the calling thread, the status of all the submitted jobs is polled by a single 
+	 * {@link ResultPoller} and the results are downloaded by a pool of {@link #getConcurrency()} threads.
+	 * The method returns when all the jobs have been completed, check the status of each job to
+	 * detect the ones terminated with an error
+	 *
+	 * @param jobs the jobs to process
+	 * @return the same list of jobs
+	 */
+	public List<Job> run( final List<Job> jobs ) {
+
+		final int total = jobs.size();
+		final Semaphore slots = new Semaphore(concurrency);
+		final CountDownLatch latch = new CountDownLatch(total);
+		final ResultPoller poller = new ResultPoller(factory.create());
+		final ExecutorService downloads = Executors.newFixedThreadPool( Math.max(1, Math.min(concurrency,total)), new DaemonThreadFactory("batch-download") );
+
+		try {
+			int i=0;
+			for( final Job job : jobs ) {
+				job.index = ++i;
+				slots.acquire();
+
+				final TCoffeeClient client = factory.create();
+				if( job.requestId != null ) {
+					resumed(client, job, total);
+				}
+				else if( !submit(client, job, total) ) {
+					slots.release();
+					latch.countDown();
+					continue;
+				}
+
+				final ResultFuture<ResultData> future = poller.watch(client, job.requestId);
+				future.addListener( new Runnable() {
+					public void run() {
+						downloads.execute( new Runnable() {
+							public void run() {
+								try {
+									download(client, job, future, total);
+								}
+								finally {
+									slots.release();
+									latch.countDown();
+								}
+							}} );
+					}} );
+			}
+
+			latch.await();
+		}
+		catch( InterruptedException e ) {
+			throw new ClientException(e, "Batch execution interrupted");
+		}
+		finally {
+			poller.shutdown();
+			downloads.shutdownNow();
+		}
+
+		return jobs;
+	}
+
+	/**
+	 * Continue the requests recorded by the journal which did not complete their download
+	 *
+	 * @param entries the pending journal entries, see {@link JobJournal#pending()}
+	 * @return the list of jobs processed
+	 */
+	public List<Job> resume( List<JobJournal.Entry> entries ) {
+		List<Job> jobs = new ArrayList<Job>();
+		for( JobJournal.Entry entry : entries ) {
+			Job job = new Job(entry.cmdline, null);
+			job.requestId = entry.requestId;
+			job.host = entry.host;
+			job.outpath = entry.outpath;
+			jobs.add(job);
+		}
+
+		return run(jobs);
+	}
+
+	/*
+	 * submit a single job, returns false if the submission failed
+	 */
+	boolean submit( TCoffeeClient client, Job job, int total ) {
+		try {
+			client.startDeadline();
+			job.requestId = client.submit(job.cmdline, job.files).requestId;
+			job.host = client.getHost();
+			File root = client.getOutputPath();
+			job.outpath = root != null ? new File(root, job.requestId) : new File(job.requestId);
+			if( client.getJournal() != null ) {
+				client.getJournal().submitted(job.requestId, client.getHost(), client.getBundle(), job.outpath, job.cmdline);
+			}
+			Sys.println("[%s/%s] Request acquired with ID: %s", job.index, total, job.requestId);
+			return true;
+		}
+		catch( Exception e ) {
+			failed(job, e, total);
+			return false;
+		}
+	}
+
+	/*
+	 * download the result of a completed job
+	 */
+	void download( TCoffeeClient client, Job job, Future<ResultData> future, int total ) {
+		try {
+			job.result = future.get();
+
+			client.setOutputPath(job.outpath);
+			client.downloadResultItems(job.requestId, job.result);
+			Sys.println("[%s/%s] Request # %s terminated with status: %s", job.index, total, job.requestId, job.result.status);
+		}
+		catch( ExecutionException e ) {
+			failed(job, e.getCause(), total);
+		}
+		catch( Exception e ) {
+			failed(job, e, total);
+		}
+	}
+
+	/*
+	 * a job submitted by a previous client execution
+	 */
+	void resumed( TCoffeeClient client, Job job, int total ) {
+		client.startDeadline();
+		if( job.host != null ) {
+			client.setHost(job.host);
+		}
+		if( job.outpath == null ) {
+			File root = client.getOutputPath();
+			job.outpath = root != null ? new File(root, job.requestId) : new File(job.requestId);
+		}
+		Sys.println("[%s/%s] Resuming request # %s", job.index, total, job.requestId);
+	}
+
+	private void failed( Job job, Throwable e, int total ) {
+		job.error = e;
+		Sys.println("[%s/%s] Request # %s terminated with error: %s", job.index, total, job.requestId, e.getMessage());
+		Sys.debug(e);
+	}
+
+	/**
+	 * The max number of jobs processed at the same time
+	 *
+	 * @param concurrency a value greater than zero
+	 */
+	public void setConcurrency( int concurrency ) {
+		if( concurrency < 1 ) {
+			throw new ClientException("Batch concurrency must be greater than zero: %s", concurrency);
+		}
+		this.concurrency = concurrency;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+}
@@ -1,15 +1,23 @@
 package org.tcoffee.client;
 
 import java.io.File;
+import java.io.PrintStream;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.log4j.Level;
+import org.tcoffee.client.BatchClient.Job;
 import org.tcoffee.client.cli.CommandLineWithFiles;
 import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.exception.ClientException;
 import org.tcoffee.client.exception.WaitResultTimeout;
+import org.tcoffee.client.util.Http;
+import org.tcoffee.client.util.Logging;
+import org.tcoffee.client.util.Retry;
 import org.tcoffee.client.util.Sys;
+import org.tcoffee.client.util.XML;
 
 /**
  * Execute a generic bundle service remotly 
@@ -20,6 +28,9 @@ import org.tcoffee.client.util.Sys;
 public class CloudCoffee extends AbstractClient {
 	
 
+	/* the stream to which the result is written in pipe mode */
+	private PrintStream pipe;
+
 	public CloudCoffee(String[] args) { 
 
 		/* 
@@ -31,7 +42,7 @@ public class CloudCoffee extends AbstractClient {
 		 * configure the command line options
 		 */
 		cmd = new CommandLineWithFiles();
-		cmd.addOption("host", "The remote host to which connect", null, "tcoffee.crg.cat", true);
+		cmd.addOption("host", "The remote host to which connect, or a comma separated list of mirror hosts", null, "tcoffee.crg.cat", true);
 		cmd.addOption("bundle", "The remote bundle serving the request", null, "tcoffee", true);
 		cmd.addOption("quiet", "Run quietly without any console output");
 		cmd.addOption("debug", "Run showing debug informations");
@@ -39,13 +50,25 @@ public class CloudCoffee extends AbstractClient {
 		cmd.addOption("out-path", "The path where to save the output files");
 		cmd.addOption("flat-path", "Do not create subfolder for the server returned files","true|false","true",true);
 		cmd.addOption("poll-timeout", "Max time to wait for the request completion (seconds)", "n", "1h", false);
-		cmd.addOption("poll-sleep", "Time to sleep between each poll requests", "n", "5s", false);
+		cmd.addOption("timeout", "Max time to complete the whole operation, including the uploads and downloads", "n", null, false);
+		cmd.addOption("poll-sleep", "Max time to sleep between two poll requests", "n", "5s", false);
 		cmd.addOption("help", "Print this help");
 		cmd.addOption("update-client", "Update the client and exit");
 		cmd.addOption("ver", "Print the client version number");
 		cmd.addOption("download", "Download the output files for the specified job ID");
 		cmd.addOption("include-input","Include the input file(s) in the download action");
+		cmd.addOption("include", "Download only the result files matching these comma separated patterns", "[type:|format:|name:]glob,..", null, false);
+		cmd.addOption("exclude", "Do not download the result files matching these comma separated patterns", "[type:|format:|name:]glob,..", null, false);
 		cmd.addOption("async", "Submit the request and exit without waiting for the result");
+		cmd.addOption("no-cache", "Submit the request even if its result is available in the local cache");
+		cmd.addOption("follow", "Print the T-Coffee log while the request is running");
+		cmd.addOption("stdout", "Write the result file having the specified format to the standard output, skipping the other files", "aln|fasta_aln|..", null, false);
+		cmd.addOption("hedge", "Submit a duplicate to another mirror host of a request still running after this percentile of the service elapsed times", "1..99", null, false);
+		cmd.addOption("batch", "Submit all the requests listed in the specified file (one command line for each row)");
+		cmd.addOption("concurrency", "Max number of batch requests running at the same time", "n", "4", false);
+		cmd.addOption("resume", "Continue the requests submitted by a previous execution whose result has not been downloaded");
+		cmd.addOption("agent", "Run as a background agent executing the commands entered in the current folder ('stop' to terminate it)", "start|stop", null, false);
+		cmd.addOption("no-agent", "Execute the command in this process even if an agent is running");
 		
 		/*
 		 * parse the command line 
@@ -56,14 +79,28 @@ public class CloudCoffee extends AbstractClient {
 		 * check for debug mode
 		 */
 		if( cmd.hasOption("debug")) { 
-			Sys.debug = true;
-			Sys.quiet = false;
-			org.apache.log4j.Logger.getRootLogger().setLevel( Level.DEBUG );
+			Sys.setDebug(true);
+			Sys.setQuiet(false);
+			Logging.setDebug(true);
 		}
 		
 		if( cmd.hasOption("quiet" )) { 
-			Sys.quiet = true;
-			Sys.debug = false;
+			Sys.setQuiet(true);
+			Sys.setDebug(false);
+		}
+		
+		/*
+		 * in pipe mode the result is the only content written to the standard output, 
+		 * the messages are printed to the standard error 
+		 */
+		if( cmd.hasOption("stdout") ) { 
+			pipe = Sys.out();
+			if( pipe == System.out ) { 
+				System.setOut(System.err);
+			}
+			else { 
+				Sys.setQuiet(true);
+			}
 		}
 		
 
@@ -77,12 +114,12 @@ public class CloudCoffee extends AbstractClient {
 		 */
 		if( cmd.hasOption("ver") ) { 
 			Sys.println(Sys.appver.toString());
-			System.exit(0);
+			Sys.exit(0);
 		}
 		
 		if( cmd.hasOption("update-client") ) { 
 			update(cmd.getOption("update-client"));
-			System.exit(0);
+			Sys.exit(0);
 		}
 		
 		/* 
@@ -91,7 +128,7 @@ public class CloudCoffee extends AbstractClient {
 		Sys.print("%s - rel %s\n", Sys.appname, Sys.appver);
 		if( cmd.hasOption("help") || (cmd.isEmpty() &&  cmd.getArguments().isEmpty()) ) { 
 			Sys.println(cmd.usage());
-			System.exit(0);
+			Sys.exit(0);
 		}
 	}
 
@@ -104,13 +141,39 @@ public class CloudCoffee extends AbstractClient {
 
 		try { 
 			client = createClient();
+			
+			/* 
+			 * write the result to the standard output
+			 */
+			if( pipe != null ) { 
+				if( StringUtils.isEmpty(cmd.getOption("stdout")) ) { 
+					Sys.error("You have to provide the format of the result file to write to the standard output");
+				}
+				client.setPipe(cmd.getOption("stdout"), pipe);
+			}
 		
+			/* 
+			 * run all the requests in the batch file and exit 
+			 */
+			if( cmd.hasOption("batch") ) { 
+				runBatch(cmd.getOption("batch"));
+				Sys.exit("Done");
+			}
+			
+			/* 
+			 * continue the pending requests recorded in the journal and exit 
+			 */
+			if( cmd.hasOption("resume") ) { 
+				resume();
+				Sys.exit("Done");
+			}
+			
 			/* 
 			 * just a ping and exit 
 			 */
 			if( cmd.hasOption("ping")) { 
 				client.ping();
-				System.exit(0);
+				Sys.exit(0);
 			}
 			
 			/* 
@@ -125,6 +188,11 @@ public class CloudCoffee extends AbstractClient {
 			/*
 			 * submit a generic request 
 			 */
+			if( !Sys.isQuiet() ) { 
+				/* print the log while it is downloaded, or while the request is running with the 'follow' option */
+				client.setResultLogStream(Sys.out());
+				if( cmd.hasOption("follow") ) client.setFollowStream(Sys.out());
+			}
 			client.run(cmd.getArgumentsString(), ((CommandLineWithFiles)cmd).getArgumentsFiles());
 			
 			if( client.getAsync() ) { 
@@ -137,7 +205,11 @@ public class CloudCoffee extends AbstractClient {
 			else { 
 				ResultData result = client.getResult();
 				if( result != null && result.isStatusDONE() ) { 
-					Sys.print("\r%s", client.getResultLog());
+					if( !Sys.isQuiet() ) { 
+						/* the log restored from the cache or already downloaded by a previous execution */
+						Sys.print("\r");
+						client.printResultLog(Sys.out());
+					}
 				}
 				else { 
 					Sys.error("Your request terminated with errors. For more information check the file '_tcoffee.err.log'.");
@@ -167,6 +239,56 @@ public class CloudCoffee extends AbstractClient {
 
 
 
+	private void runBatch( String manifest ) { 
+		if( StringUtils.isEmpty(manifest) ) { 
+			Sys.error("You have to provide the batch file listing the requests to submit");
+		}
+
+		List<Job> jobs = BatchClient.parseManifest(new File(manifest));
+		Sys.println("Submitting %s requests", jobs.size());
+		
+		createBatch().run(jobs);
+		report(jobs);
+	}
+	
+	private void resume() { 
+		List<JobJournal.Entry> pending = getJournal().pending();
+		if( pending.size() == 0 ) { 
+			Sys.exit("No pending requests to resume");
+		}
+
+		Sys.println("Resuming %s requests", pending.size());
+		report( createBatch().resume(pending) );
+	}
+	
+	private BatchClient createBatch() { 
+		BatchClient batch = new BatchClient( new BatchClient.ClientFactory() {
+			public TCoffeeClient create() {
+				return createClient();
+			}} );
+		
+		Integer concurrency = paramAsInt("concurrency");
+		if( concurrency != null ) { 
+			batch.setConcurrency(concurrency);
+		}
+		
+		return batch;
+	}
+	
+	/*
+	 * report the failed jobs 
+	 */
+	private void report( List<Job> jobs ) { 
+		int failed = 0;
+		for( Job job : jobs ) { 
+			if( !job.isDone() ) failed++;
+		}
+		
+		if( failed > 0 ) { 
+			Sys.error("%s of %s requests terminated with errors", failed, jobs.size());
+		}
+	}
+
 	private void downloadAllFiles(TCoffeeClient client, String commaSeparatedIDs) {
 
 		String[] IDs = commaSeparatedIDs.split(",");
@@ -263,9 +385,83 @@ public class CloudCoffee extends AbstractClient {
 	 */
 	public static void main(String[] args) throws URISyntaxException {
 
+		Logging.configure();
+		
+		if( Boolean.getBoolean("c-coffee.training") ) { 
+			training();
+		}
+		
+		/* 
+		 * run as agent, stop it or forward the command to it when running 
+		 */
+		String agent = Agent.option(args);
+		if( agent != null ) { 
+			agent(agent);
+			return;
+		}
+		
+		/* 
+		 * the agent output is printed to the standard output, so the pipe mode is executed in-process 
+		 */
+		if( !Arrays.asList(args).contains("--no-agent") && !isPipe(args) ) { 
+			try { 
+				Integer code = Agent.forward(Agent.defaultFile(), args, System.out);
+				if( code != null ) { 
+					System.exit(code);
+				}
+			}
+			catch( ClientException e ) { 
+				Sys.error(e);
+			}
+		}
+		
+		Runtime.getRuntime().addShutdownHook( new Thread() {
+			public void run() {
+				Sys.debug("HTTP %s", Retry.metrics());
+			}} );
+		
 		CloudCoffee main = new CloudCoffee (args);
 		main.execute();
 	}
+	
+	static boolean isPipe( String[] args ) { 
+		for( String arg : args ) { 
+			if( "--stdout".equals(arg) || arg.startsWith("--stdout=") ) return true;
+		}
+		return false;
+	}
+	
+	static void agent( String mode ) { 
+		try { 
+			if( "stop".equals(mode) ) { 
+				Integer code = Agent.forward(Agent.defaultFile(), new String[] { Agent.STOP }, System.out);
+				Sys.exit( code != null ? "Agent stopped" : "No agent is running" );
+			}
+			
+			Agent agent = new Agent(Agent.defaultFile());
+			agent.start();
+			Sys.println("%s agent listening for the commands entered in: %s", Sys.appname, System.getProperty("user.dir"));
+			agent.serve();
+		}
+		catch( Exception e ) { 
+			Sys.error(e);
+		}
+	}
+	
+	/*
+	 * Exercise the common code paths without contacting the server, it is used by the launcher 
+	 * to create the class data sharing archive (see the 'dist/c-coffee' script)
+	 */
+	static void training() { 
+		XML.fromXML( 
+			"<response><submit><request-id>1</request-id><status>Running</status><url>/1.html</url></submit>" + 
+			"<result><status>Done</status><elapsed-time>1</elapsed-time><item><webpath>/1.aln</webpath><name>1.aln</name></item></result>" +
+			"<err><code>500</code><message>none</message></err></response>");
+		
+		/* a ping to a closed port terminates the process */
+		Http.setDefaultRetry(Retry.NONE);
+		new CloudCoffee(new String[] { "--host=127.0.0.1:1", "--ping", "--quiet" }).execute();
+	}
 
 
 		
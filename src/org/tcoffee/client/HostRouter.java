@@ -0,0 +1,307 @@
+package org.tcoffee.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.data.ResponseData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.util.DaemonThreadFactory;
+import org.tcoffee.client.util.Http;
+import org.tcoffee.client.util.Retry;
+
+/**
+ * Route the new requests across a set of mirror hosts serving the same bundle.
+ * <p>
+ * The hosts are checked in background using the <code>ping</code> service, each new request is routed
+ * to the healthy host having the lowest ping latency weighted by the number of requests it is processing.
+ * Once accepted a request is bound to its host, see {@link TCoffeeClient#setHost(String)}.
+ *
+ */
+public class HostRouter {
+
+	private static Logger log = LoggerFactory.getLogger(HostRouter.class);
+
+	/** The weight of the last ping in the latency moving average */
+	static final double ALPHA = 0.3;
+
+	/**
+	 * The state of a single host
+	 */
+	public static class Host {
+
+		public final String name;
+
+		/** The ping latency moving average (millis), negative until the first successful ping */
+		volatile double latency = -1;
+
+		volatile boolean healthy;
+
+		boolean checked;
+
+		final AtomicInteger inflight = new AtomicInteger();
+
+		Host( String name ) {
+			this.name = name;
+		}
+
+		/*
+		 * the lower the better
+		 */
+		double score() {
+			return Math.max(latency,1) * (1 + inflight.get());
+		}
+
+		public double getLatency() {
+			return latency;
+		}
+
+		public boolean isHealthy() {
+			return healthy;
+		}
+
+		public int getInflight() {
+			return inflight.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s [healthy=%s, latency=%.0f ms, inflight=%s]", name, healthy, latency, inflight.get());
+		}
+	}
+
+	private final List<Host> hosts = new ArrayList<Host>();
+
+	private final String bundle;
+
+	private final Http http = new Http();
+
+	/* the host processing each request */
+	private final Map<String,Host> requests = new ConcurrentHashMap<String, Host>();
+
+	private ScheduledExecutorService scheduler;
+
+	private int checkIntervalSecs = 30;
+
+	private int firstCheckTimeoutSecs = 10;
+
+	/* start the health checks on the first host selection */
+	private volatile boolean onDemand;
+
+	/**
+	 * @param hosts the mirror host names, it could include the port number e.g. <code>localhost:9000</code>
+	 * @param bundle the bundle used to build the ping service url
+	 */
+	public HostRouter( List<String> hosts, String bundle ) {
+		if( hosts == null || hosts.size() == 0 ) {
+			throw new ClientException("Missing remote host");
+		}
+
+		for( String name : hosts ) {
+			this.hosts.add( new Host(name.trim()) );
+		}
+		this.bundle = bundle;
+
+		/* a failed check is not retried, the host is checked again on the next round */
+		this.http.setRetry(Retry.NONE);
+	}
+
+	/**
+	 * Parse a comma separated list of hosts
+	 */
+	public static List<String> parse( String hosts ) {
+		List<String> result = new ArrayList<String>();
+		if( hosts != null ) for( String item : hosts.split(",") ) {
+			if( item.trim().length() > 0 ) result.add(item.trim());
+		}
+		return result;
+	}
+
+	/**
+	 * Start the background health checks
+	 */
+	public synchronized void start() {
+		if( scheduler != null ) {
+			return;
+		}
+
+		scheduler = Executors.newScheduledThreadPool(hosts.size(), new DaemonThreadFactory("host-check"));
+		for( final Host host : hosts ) {
+			scheduler.scheduleWithFixedDelay( new Runnable() {
+				public void run() {
+					check(host);
+				}}, 0, checkIntervalSecs, TimeUnit.SECONDS );
+		}
+	}
+
+	/**
+	 * Start the background health checks when a host is selected for the first time, so that the commands
+	 * not submitting any request do not ping the hosts
+	 */
+	public void startOnDemand() {
+		onDemand = true;
+	}
+
+	public synchronized void shutdown() {
+		if( scheduler != null ) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Ping the specified host updating its health and latency
+	 */
+	void check( Host host ) {
+		long begin = System.currentTimeMillis();
+		try {
+			ResponseData response = http.getResponse("http://" + host.name + "/api/" + bundle + "/ping");
+			if( response == null || response.err != null ) {
+				throw new ClientException("Ping failed: %s", response != null ? response.err : "missing response");
+			}
+
+			long elapsed = System.currentTimeMillis() - begin;
+			host.latency = host.latency < 0 ? elapsed : ALPHA * elapsed + (1-ALPHA) * host.latency;
+			host.healthy = true;
+			log.debug("Host check: {}", host);
+		}
+		catch( Exception e ) {
+			host.healthy = false;
+			log.debug("Host check failed: {} - {}", host.name, e.getMessage());
+		}
+		finally {
+			synchronized( this ) {
+				host.checked = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Select the host to which submit a new request. Until a host is known to be healthy, it waits for
+	 * the first health check of each host to complete.
+	 *
+	 * @return the healthy host having the lowest latency weighted by its in-flight requests, or the
+	 * least loaded host when none is known to be healthy
+	 */
+	public String select() {
+		return select(null);
+	}
+
+	/**
+	 * Select a host different from the specified one, see {@link #select()}
+	 *
+	 * @param exclude the host to exclude, <code>null</code> to consider all the hosts
+	 * @return the selected host or <code>null</code> if there are no other hosts
+	 */
+	public String select( String exclude ) {
+		if( onDemand ) {
+			onDemand = false;
+			start();
+		}
+		if( scheduler != null ) {
+			awaitFirstCheck();
+		}
+
+		Host result = null;
+		for( Host host : hosts ) {
+			if( !host.healthy || host.name.equals(exclude) ) continue;
+			if( result == null || host.score() < result.score() ) result = host;
+		}
+
+		if( result == null ) {
+			for( Host host : hosts ) {
+				if( host.name.equals(exclude) ) continue;
+				if( result == null || host.inflight.get() < result.inflight.get() ) result = host;
+			}
+		}
+
+		log.debug("Selected host: {}", result);
+		return result != null ? result.name : null;
+	}
+
+	private synchronized void awaitFirstCheck() {
+		long deadline = System.currentTimeMillis() + firstCheckTimeoutSecs * 1000L;
+		long wait;
+		try {
+			while( !isAnyHealthy() && !isAllChecked() && (wait=deadline-System.currentTimeMillis()) > 0 ) {
+				wait(wait);
+			}
+		}
+		catch( InterruptedException e ) {
+			log.debug("Host selection interrupted");
+		}
+	}
+
+	private boolean isAnyHealthy() {
+		for( Host host : hosts ) {
+			if( host.healthy ) return true;
+		}
+		return false;
+	}
+
+	private boolean isAllChecked() {
+		for( Host host : hosts ) {
+			if( !host.checked ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Account a request accepted by the specified host
+	 */
+	public void submitted( String host, String requestId ) {
+		Host target = find(host);
+		if( target != null && requestId != null && requests.put(requestId, target) == null ) {
+			target.inflight.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The request is no longer processed, invoking it more times has no effect
+	 */
+	public void completed( String requestId ) {
+		Host target = requestId != null ? requests.remove(requestId) : null;
+		if( target != null ) {
+			target.inflight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * The specified host failed to accept a request, it will not be selected until the next successful health check
+	 */
+	public void failed( String host ) {
+		Host target = find(host);
+		if( target != null ) {
+			target.healthy = false;
+		}
+	}
+
+	private Host find( String name ) {
+		for( Host host : hosts ) {
+			if( host.name.equals(name) ) return host;
+		}
+		return null;
+	}
+
+	public List<Host> getHosts() {
+		return Collections.unmodifiableList(hosts);
+	}
+
+	public void setCheckIntervalSecs( int value ) {
+		this.checkIntervalSecs = value;
+	}
+
+	public int getCheckIntervalSecs() {
+		return checkIntervalSecs;
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.tcoffee.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+import org.tcoffee.client.data.ResultItemData;
+import org.tcoffee.client.exception.ClientException;
+
+/**
+ * Select the result items to download.
+ * <p>
+ * The include and exclude lists are comma separated patterns, each one optionally prefixed by the item
+ * attribute it applies to, e.g. <code>format:fasta_aln,name:*.dnd,score_*</code>. The patterns can contain
+ * the <code>*</code> and <code>?</code> wildcards, a <code>name</code> pattern matches either the item path
+ * or its file name and a pattern without prefix matches the item type, format or name.
+ * <p>
+ * An item is accepted when it matches at least one include pattern (or there are none) and no exclude pattern.
+ *
+ */
+public class ItemFilter {
+
+	static final String TYPE = "type";
+
+	static final String FORMAT = "format";
+
+	static final String NAME = "name";
+
+	/* a single pattern, 'attribute' is null when it applies to any of them */
+	static class Pattern {
+
+		final String attribute;
+
+		final String glob;
+
+		Pattern( String attribute, String glob ) {
+			this.attribute = attribute;
+			this.glob = glob;
+		}
+
+		boolean matches( ResultItemData item ) {
+			if( TYPE.equals(attribute) ) return match(item.type);
+			if( FORMAT.equals(attribute) ) return match(item.format);
+			if( NAME.equals(attribute) ) return matchName(item.name);
+			return match(item.type) || match(item.format) || matchName(item.name);
+		}
+
+		boolean matchName( String name ) {
+			return name != null && (match(name) || match(FilenameUtils.getName(name)));
+		}
+
+		boolean match( String value ) {
+			return value != null && FilenameUtils.wildcardMatch(value, glob);
+		}
+
+		@Override
+		public String toString() {
+			return attribute != null ? attribute + ":" + glob : glob;
+		}
+	}
+
+	private final List<Pattern> includes;
+
+	private final List<Pattern> excludes;
+
+	/**
+	 * @param include the comma separated patterns of the items to download, <code>null</code> or empty for all
+	 * @param exclude the comma separated patterns of the items to skip, <code>null</code> or empty for none
+	 */
+	public ItemFilter( String include, String exclude ) {
+		this.includes = parse(include);
+		this.excludes = parse(exclude);
+	}
+
+	static List<Pattern> parse( String patterns ) {
+		List<Pattern> result = new ArrayList<Pattern>();
+		if( patterns == null ) {
+			return result;
+		}
+
+		for( String item : patterns.split(",") ) {
+			item = item.trim();
+			if( item.length() == 0 ) continue;
+
+			String attribute = null;
+			int p = item.indexOf(':');
+			if( p != -1 ) {
+				attribute = item.substring(0,p).trim();
+				item = item.substring(p+1).trim();
+				if( !TYPE.equals(attribute) && !FORMAT.equals(attribute) && !NAME.equals(attribute) ) {
+					throw new ClientException("Invalid result file filter: '%s:%s' (use a 'type:', 'format:' or 'name:' prefix)", attribute, item);
+				}
+			}
+
+			if( item.length() == 0 ) {
+				throw new ClientException("Missing pattern in result file filter: '%s:'", attribute);
+			}
+			result.add( new Pattern(attribute, item) );
+		}
+		return result;
+	}
+
+	/**
+	 * @return <code>true</code> if the item has to be downloaded
+	 */
+	public boolean accept( ResultItemData item ) {
+		return (includes.size() == 0 || matches(includes, item)) && !matches(excludes, item);
+	}
+
+	private static boolean matches( List<Pattern> patterns, ResultItemData item ) {
+		for( Pattern pattern : patterns ) {
+			if( pattern.matches(item) ) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> when the filter accepts any item
+	 */
+	public boolean isEmpty() {
+		return includes.size() == 0 && excludes.size() == 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("include: %s - exclude: %s", includes, excludes);
+	}
+}
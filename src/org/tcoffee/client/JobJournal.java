@@ -0,0 +1,380 @@
+package org.tcoffee.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.util.Sys;
+
+/**
+ * Append-only log of the submitted requests, so that the requests still in flight can be recovered
+ * when the client is restarted.
+ * <p>
+ * Each row is an event, made up by tab separated fields: the timestamp, the event type and the request ID,
+ * followed by the event data and by the <code>.</code> end marker:
+ * <pre>
+ * SUBMIT  request-id  host  bundle  output-path  command-line  .
+ * STATUS  request-id  status  .
+ * ITEM    request-id  downloaded-file  .
+ * DONE    request-id  .
+ * </pre>
+ * A row without the marker or with an unexpected number of fields has been cut short by a crash and it is skipped.
+ * A request is pending until its <code>DONE</code> event, i.e. until all its result files have been downloaded.
+ * <p>
+ * The journal is shared by all the client processes of the user, the file is accessed holding an exclusive
+ * lock on the companion <code>.lock</code> file so that no process loses the events written by the others.
+ *
+ */
+public class JobJournal {
+
+	static final String SUBMIT = "SUBMIT";
+	static final String STATUS = "STATUS";
+	static final String ITEM = "ITEM";
+	static final String DONE = "DONE";
+
+	/* the last field of a complete row */
+	static final String END = ".";
+
+	/**
+	 * The state of a request rebuilt from the journal events
+	 */
+	static public class Entry {
+		public String requestId;
+		public String host;
+		public String bundle;
+		public File outpath;
+		public String cmdline;
+		public String status;
+		public Set<File> downloaded = new HashSet<File>();
+		public boolean done;
+
+		@Override
+		public String toString() {
+			return "Entry [requestId=" + requestId + ", status=" + status + ", done=" + done + "]";
+		}
+	}
+
+	/* the file locks are held by the JVM, the threads of the same process are serialized by this monitor */
+	private static final Object mutex = new Object();
+
+	/*
+	 * an operation on the journal file
+	 */
+	interface Action {
+		void run() throws IOException;
+	}
+
+	private File file;
+
+	private Map<String,Entry> entries = new LinkedHashMap<String, Entry>();
+
+	private boolean opened;
+
+	/**
+	 * Create the journal. The events already recorded are read on first use, when the requests
+	 * completed are discarded from the file.
+	 *
+	 * @param file the journal file, it is created if does not exist
+	 */
+	public JobJournal( File file ) {
+		this.file = file;
+	}
+
+	/*
+	 * read the journal the first time it is accessed
+	 */
+	synchronized void open() {
+		if( !opened ) {
+			opened = true;
+			compact();
+		}
+	}
+
+	/**
+	 * Record the submission of a new request
+	 */
+	public void submitted( String requestId, String host, String bundle, File outpath, String cmdline ) {
+		String path = (outpath != null ? outpath : new File(".")).getAbsolutePath();
+		append(SUBMIT, requestId, host, bundle, path, cmdline);
+	}
+
+	/**
+	 * Record the status returned by the server for a request
+	 */
+	public void status( String requestId, String status ) {
+		Entry entry = get(requestId);
+		if( entry == null || status == null || status.equals(entry.status) ) {
+			/* record only the transitions of known requests */
+			return;
+		}
+		append(STATUS, requestId, status);
+	}
+
+	/**
+	 * Record a result file downloaded for a request
+	 */
+	public void downloaded( String requestId, File file ) {
+		if( get(requestId) != null ) {
+			append(ITEM, requestId, file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Record that all the result files of a request have been downloaded
+	 */
+	public void completed( String requestId ) {
+		if( get(requestId) != null ) {
+			append(DONE, requestId);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> when the specified file has already been downloaded for the request and it still exists
+	 */
+	public synchronized boolean isDownloaded( String requestId, File file ) {
+		open();
+		Entry entry = entries.get(requestId);
+		return entry != null && entry.downloaded.contains(file.getAbsoluteFile()) && file.exists();
+	}
+
+	/**
+	 * @return the requests submitted whose result has not been downloaded yet
+	 */
+	public synchronized List<Entry> pending() {
+		open();
+		List<Entry> result = new ArrayList<Entry>();
+		for( Entry entry : entries.values() ) {
+			if( !entry.done ) result.add(entry);
+		}
+		return result;
+	}
+
+	synchronized Entry get( String requestId ) {
+		open();
+		return requestId != null ? entries.get(requestId) : null;
+	}
+
+	synchronized void append( String... fields ) {
+		open();
+		final String line = format(fields);
+		apply(fields);
+
+		try {
+			locked( new Action() {
+				public void run() throws IOException {
+					Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "utf-8");
+					try {
+						/* a row cut short by a crash does not swallow the new one */
+						writer.write(isTerminated() ? line : "\n" + line);
+					}
+					finally {
+						writer.close();
+					}
+				}} );
+		}
+		catch( IOException e ) {
+			throw new ClientException(e, "Unable to write journal file: %s", file);
+		}
+	}
+
+	/*
+	 * execute the action holding the journal lock
+	 */
+	void locked( Action action ) throws IOException {
+		synchronized( mutex ) {
+			RandomAccessFile lock = new RandomAccessFile(file.getPath() + ".lock", "rw");
+			try {
+				lock.getChannel().lock();
+				action.run();
+			}
+			finally {
+				/* releases the lock as well */
+				lock.close();
+			}
+		}
+	}
+
+	/*
+	 * the journal file is missing, empty or its last row is complete
+	 */
+	boolean isTerminated() throws IOException {
+		if( !file.exists() || file.length() == 0 ) {
+			return true;
+		}
+		RandomAccessFile reader = new RandomAccessFile(file, "r");
+		try {
+			reader.seek(file.length()-1);
+			return reader.read() == '\n';
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/*
+	 * one event for each row, fields separated by tabs and terminated by the end marker
+	 */
+	static String format( String... fields ) {
+		StringBuilder line = new StringBuilder();
+		line.append(System.currentTimeMillis());
+		for( String field : fields ) {
+			line.append('\t');
+			if( field != null ) line.append( field.replace('\t',' ').replace('\n',' ').replace('\r',' ') );
+		}
+		line.append('\t').append(END).append('\n');
+		return line.toString();
+	}
+
+	/*
+	 * update the requests state with the specified event
+	 */
+	void apply( String... fields ) {
+		String event = fields[0];
+		String requestId = fields[1];
+
+		if( SUBMIT.equals(event) ) {
+			Entry entry = new Entry();
+			entry.requestId = requestId;
+			entry.host = fields[2];
+			entry.bundle = fields[3];
+			entry.outpath = new File(fields[4]);
+			entry.cmdline = fields[5];
+			entries.put(requestId, entry);
+			return;
+		}
+
+		Entry entry = entries.get(requestId);
+		if( entry == null ) {
+			return;
+		}
+		if( STATUS.equals(event) ) {
+			entry.status = fields[2];
+		}
+		else if( ITEM.equals(event) ) {
+			entry.downloaded.add( new File(fields[2]) );
+		}
+		else if( DONE.equals(event) ) {
+			entry.done = true;
+		}
+	}
+
+	/*
+	 * apply the events recorded in the file, the caller holds the lock
+	 */
+	void read() throws IOException {
+		if( !file.exists() ) {
+			return;
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+		try {
+			String line;
+			while( (line=reader.readLine()) != null ) {
+				String[] fields = line.split("\t", -1);
+				if( !isComplete(fields) ) {
+					/* a truncated row, written when the client crashed */
+					Sys.debug("Skipping invalid journal row: %s", line);
+					continue;
+				}
+				String[] event = new String[fields.length-2];
+				System.arraycopy(fields, 1, event, 0, event.length);
+				apply(event);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/*
+	 * the row has the end marker and the fields of its event: timestamp, type and request ID, the event data, the marker
+	 */
+	static boolean isComplete( String[] fields ) {
+		if( fields.length < 4 || !END.equals(fields[fields.length-1]) ) {
+			return false;
+		}
+		String event = fields[1];
+		if( SUBMIT.equals(event) ) return fields.length == 8;
+		if( STATUS.equals(event) || ITEM.equals(event) ) return fields.length == 5;
+		if( DONE.equals(event) ) return fields.length == 4;
+		return false;
+	}
+
+	/*
+	 * rewrite the journal keeping only the pending requests. The file is read again holding the lock,
+	 * so that the events appended by the other processes after it has been loaded are preserved
+	 */
+	synchronized void compact() {
+		opened = true;
+		try {
+			locked( new Action() {
+				public void run() throws IOException {
+					entries.clear();
+					read();
+					try {
+						rewrite();
+					}
+					catch( IOException e ) {
+						Sys.debug(e);
+					}
+				}} );
+		}
+		catch( IOException e ) {
+			throw new ClientException(e, "Unable to read journal file: %s", file);
+		}
+	}
+
+	private void rewrite() throws IOException {
+		List<Entry> pending = pending();
+		if( pending.size() == entries.size() ) {
+			return;
+		}
+
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "utf-8");
+			try {
+				for( Entry entry : pending ) {
+					writer.write( format(SUBMIT, entry.requestId, entry.host, entry.bundle, entry.outpath.getPath(), entry.cmdline) );
+					if( entry.status != null ) {
+						writer.write( format(STATUS, entry.requestId, entry.status) );
+					}
+					for( File item : entry.downloaded ) {
+						writer.write( format(ITEM, entry.requestId, item.getPath()) );
+					}
+				}
+			}
+			finally {
+				writer.close();
+			}
+
+			/* the rename replaces the journal atomically, deleting it first is just the fallback of the systems that require it */
+			if( !temp.renameTo(file) && !(file.delete() && temp.renameTo(file)) ) {
+				Sys.debug("Unable to compact journal file: %s", file);
+				return;
+			}
+		}
+		finally {
+			temp.delete();
+		}
+
+		entries.clear();
+		for( Entry entry : pending ) {
+			entries.put(entry.requestId, entry);
+		}
+	}
+
+}
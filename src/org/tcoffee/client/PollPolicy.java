@@ -0,0 +1,67 @@
+package org.tcoffee.client;
+
+import java.util.Random;
+
+import org.tcoffee.client.data.ResultData;
+
+/**
+ * Compute the delay between two result polls. 
+ * <p>
+ * The first delay is short, then it grows exponentially with a random jitter, so that short jobs are detected 
+ * quickly and long jobs do not flood the server with requests. When the service of the request has a history 
+ * in {@link ServiceStats}, the client waits for the expected completion time (the median of the recorded elapsed 
+ * times) instead of polling in the meanwhile. The delay never exceeds the specified max value, i.e. the poll 
+ * sleep of the client, so that the history only seeds the first delays up to that cap and a job that completes 
+ * before the median is detected no later than one poll sleep. 
+ * 
+ */
+public class PollPolicy {
+
+	static final Random random = new Random();
+	
+	/** The first poll delay in milliseconds */
+	long initialMillis = 1000;
+	
+	/** The factor by which the delay grows on each poll */
+	double factor = 2.0;
+	
+	/** The max random variation of the delay, as a fraction of it */
+	double jitter = 0.2;
+	
+	private ServiceStats stats;
+	
+	public PollPolicy( ServiceStats stats ) { 
+		this.stats = stats;
+	}
+	
+	/**
+	 * The time to wait before the next poll 
+	 * 
+	 * @param result the last status returned by the server 
+	 * @param waited the time elapsed since the request has been submitted (milliseconds)
+	 * @param previous the previous delay or zero for the first one (milliseconds)
+	 * @param maxMillis the max delay (milliseconds) 
+	 * @return the delay before the next poll in milliseconds 
+	 */
+	public long nextDelay( ResultData result, long waited, long previous, long maxMillis ) { 
+		
+		long delay = previous <= 0 ? initialMillis : (long) (previous * factor);
+		
+		/* 
+		 * wait for the expected completion time if the service has a history 
+		 */
+		Long expected = result != null && stats != null ? stats.median(result.service) : null;
+		if( expected != null ) { 
+			long elapsed = Math.max(waited, result.elapsedTime);
+			delay = Math.max(delay, expected - elapsed);
+		}
+		
+		/* 
+		 * add the jitter, so that requests submitted together do not hit the server at the same time 
+		 */
+		delay += (long) (delay * jitter * (2 * random.nextDouble() - 1));
+		
+		return Math.max( Math.min(delay, maxMillis), Math.min(initialMillis,maxMillis) );
+	}
+	
+}
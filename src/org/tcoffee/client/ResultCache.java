@@ -0,0 +1,237 @@
+package org.tcoffee.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.data.ResponseData;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.SubmitData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.util.KeyValue;
+import org.tcoffee.client.util.XML;
+
+/**
+ * Local cache of the downloaded results, so that a request already processed is not submitted again.
+ * <p>
+ * Entries are addressed by a hash of the request parameters, including the content of the uploaded files.
+ * Each entry is a folder containing the <code>response.xml</code> file, holding the submit and result data, and the
+ * downloaded result items, named by their index in the result. When the cache exceeds its max size the
+ * least recently used entries are removed.
+ *
+ */
+public class ResultCache {
+
+	private static Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+	static final String RESPONSE = "response.xml";
+
+	private File dir;
+
+	private long maxBytes = 500L * 1024 * 1024;
+
+	/**
+	 * @param dir the cache root folder, it is created if does not exist
+	 */
+	public ResultCache( File dir ) {
+		this.dir = dir;
+	}
+
+	/**
+	 * The max size of the cache (bytes), the least recently used entries are removed above this limit
+	 */
+	public void setMaxBytes( long maxBytes ) {
+		this.maxBytes = maxBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * The cache key for the specified request
+	 *
+	 * @param action the server action and bundle e.g. <code>tcoffee/run</code>
+	 * @param params the request parameters, for {@link File} values the name and the content are hashed
+	 * @return the key as hex string
+	 */
+	public String key( String action, List<KeyValue> params ) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			update(digest, action);
+			if( params != null ) for( KeyValue param : params ) {
+				update(digest, param.key);
+				if( param.value instanceof File ) {
+					File file = (File) param.value;
+					update(digest, file.getName());
+					update(digest, file);
+				}
+				else {
+					update(digest, param.value != null ? param.value.toString() : "");
+				}
+			}
+
+			StringBuilder result = new StringBuilder();
+			for( byte b : digest.digest() ) {
+				result.append( String.format("%02x", b) );
+			}
+			return result.toString();
+		}
+		catch( NoSuchAlgorithmException e ) {
+			throw new ClientException(e, "Cannot create result cache key");
+		}
+	}
+
+	private void update( MessageDigest digest, String value ) {
+		try {
+			digest.update( value != null ? value.getBytes("utf-8") : new byte[0] );
+			digest.update( (byte)0 );
+		}
+		catch( IOException e ) {
+			throw new ClientException(e, "Cannot create result cache key");
+		}
+	}
+
+	private void update( MessageDigest digest, File file ) {
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[8192];
+				int len;
+				while( (len=in.read(buffer)) != -1 ) {
+					digest.update(buffer, 0, len);
+				}
+			}
+			finally {
+				in.close();
+			}
+			digest.update( (byte)0 );
+		}
+		catch( IOException e ) {
+			throw new ClientException(e, "Cannot read file: %s", file);
+		}
+	}
+
+	/**
+	 * Look up the cache
+	 *
+	 * @param key the request key
+	 * @return the submit and result data of the cached request or <code>null</code> when it is not available
+	 */
+	public ResponseData get( String key ) {
+		File response = new File(new File(dir, key), RESPONSE);
+		if( !response.exists() ) {
+			return null;
+		}
+
+		try {
+			ResponseData result = XML.fromXML(response);
+			/* mark as recently used */
+			response.setLastModified(System.currentTimeMillis());
+			return result;
+		}
+		catch( Exception e ) {
+			log.debug("Invalid cache entry: {}", key, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the cached copy of the result item having the specified index
+	 */
+	public File item( String key, int index ) {
+		return new File(new File(dir, key), String.valueOf(index));
+	}
+
+	/**
+	 * Save a completed request in the cache, evicting the least recently used entries when the cache is full
+	 *
+	 * @param key the request key
+	 * @param submit the request submit data
+	 * @param result the request result
+	 * @param files the downloaded files, at the same index of the corresponding result item or <code>null</code>
+	 * when the item has not been downloaded
+	 */
+	public synchronized void put( String key, SubmitData submit, ResultData result, List<File> files ) {
+		File entry = new File(dir, key);
+		File temp = new File(dir, key + ".tmp");
+		try {
+			FileUtils.deleteDirectory(temp);
+			if( !temp.mkdirs() ) {
+				throw new IOException("Cannot create folder: " + temp);
+			}
+
+			for( int i=0; i<files.size(); i++ ) {
+				if( files.get(i) != null && files.get(i).exists() ) {
+					FileUtils.copyFile(files.get(i), new File(temp, String.valueOf(i)));
+				}
+			}
+
+			ResponseData response = new ResponseData();
+			response.submit = submit;
+			response.result = result;
+			XML.toXML(response, new File(temp, RESPONSE));
+
+			FileUtils.deleteDirectory(entry);
+			if( !temp.renameTo(entry) ) {
+				throw new IOException("Cannot rename folder: " + temp);
+			}
+		}
+		catch( IOException e ) {
+			log.warn("Unable to save result in the cache: {}", e.getMessage());
+			try { FileUtils.deleteDirectory(temp); } catch( IOException x ) { log.debug("Cannot delete {}", temp); }
+			return;
+		}
+
+		evict();
+	}
+
+	/*
+	 * remove the least recently used entries until the cache size is within the limit
+	 */
+	synchronized void evict() {
+		File[] entries = dir.listFiles();
+		if( entries == null ) {
+			return;
+		}
+
+		List<File> list = new ArrayList<File>();
+		long total = 0;
+		for( File entry : entries ) {
+			if( entry.isDirectory() && new File(entry, RESPONSE).exists() ) {
+				list.add(entry);
+				total += FileUtils.sizeOfDirectory(entry);
+			}
+		}
+
+		File[] sorted = list.toArray(new File[list.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long d = new File(a, RESPONSE).lastModified() - new File(b, RESPONSE).lastModified();
+				return d < 0 ? -1 : d > 0 ? 1 : 0;
+			}} );
+
+		for( int i=0; i<sorted.length && total > maxBytes; i++ ) {
+			long size = FileUtils.sizeOfDirectory(sorted[i]);
+			try {
+				FileUtils.deleteDirectory(sorted[i]);
+				total -= size;
+				log.debug("Evicted cache entry: {}", sorted[i].getName());
+			}
+			catch( IOException e ) {
+				log.debug("Cannot evict cache entry: {}", sorted[i]);
+			}
+		}
+	}
+
+}
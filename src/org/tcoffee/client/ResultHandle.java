@@ -0,0 +1,187 @@
+package org.tcoffee.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.ResultItemData;
+import org.tcoffee.client.exception.ClientException;
+
+/**
+ * The result of a request whose files are downloaded on demand.
+ * <p>
+ * Each result item is fetched the first time its content is accessed, then it is read from the local file,
+ * so that the code that needs just a score file or the request status does not download the whole result.
+ * The files are saved where the client would save them, see {@link TCoffeeClient#setOutputPath(File)}, and
+ * they are downloaded from the host that processed the request. Each download is a new operation, limited by
+ * the client timeout (see {@link TCoffeeClient#setTimeoutSecs(int)}) but not by the deadline of the request.
+ *
+ */
+public class ResultHandle {
+
+	/**
+	 * A single result item, downloaded the first time it is accessed
+	 */
+	public class Item {
+
+		private final ResultItemData data;
+
+		private File file;
+
+		Item( ResultItemData data ) {
+			this.data = data;
+		}
+
+		public ResultItemData getData() {
+			return data;
+		}
+
+		public String getName() {
+			return data.name;
+		}
+
+		public String getType() {
+			return data.type;
+		}
+
+		public String getFormat() {
+			return data.format;
+		}
+
+		/**
+		 * @return the local file holding the item content, downloading it on the first invocation
+		 */
+		public synchronized File getFile() {
+			if( file == null ) {
+				file = client.fetchItem(host, requestId, data);
+			}
+			return file;
+		}
+
+		/**
+		 * @return a stream reading the item content, the caller has to close it
+		 */
+		public InputStream openStream() {
+			File source = getFile();
+			try {
+				return new FileInputStream(source);
+			}
+			catch( IOException e ) {
+				throw new ClientException(e, "Unable to read result file: %s", source);
+			}
+		}
+
+		/**
+		 * @return the item content, use it just for small files
+		 */
+		public byte[] getBytes() {
+			File source = getFile();
+			try {
+				return FileUtils.readFileToByteArray(source);
+			}
+			catch( IOException e ) {
+				throw new ClientException(e, "Unable to read result file: %s", source);
+			}
+		}
+
+		/**
+		 * @return <code>true</code> when the item has already been downloaded
+		 */
+		public synchronized boolean isFetched() {
+			return file != null;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s [type=%s, format=%s, fetched=%s]", data.name, data.type, data.format, isFetched());
+		}
+	}
+
+	private final TCoffeeClient client;
+
+	/* the host that processed the request */
+	private final String host;
+
+	private final String requestId;
+
+	private final ResultData result;
+
+	private final List<Item> items = new ArrayList<Item>();
+
+	ResultHandle( TCoffeeClient client, String host, String requestId, ResultData result ) {
+		this.client = client;
+		this.host = host;
+		this.requestId = requestId;
+		this.result = result;
+
+		if( result != null && result.items != null ) for( ResultItemData item : result.items ) {
+			items.add( new Item(item) );
+		}
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return the request status as returned by the server
+	 */
+	public ResultData getResult() {
+		return result;
+	}
+
+	public boolean isDone() {
+		return result != null && result.isStatusDONE();
+	}
+
+	/**
+	 * @return all the result items, none of them is downloaded until its content is accessed
+	 */
+	public List<Item> getItems() {
+		return Collections.unmodifiableList(items);
+	}
+
+	/**
+	 * Find a result item by its format, or by its type when no item has that format
+	 *
+	 * @param format the item format or type e.g. <code>fasta_aln</code>
+	 * @return the first matching item or <code>null</code> if there are none
+	 */
+	public Item find( String format ) {
+		Item byType = null;
+		for( Item item : items ) {
+			if( format.equals(item.data.format) ) return item;
+			if( byType == null && format.equals(item.data.type) ) byType = item;
+		}
+		return byType;
+	}
+
+	/**
+	 * Find a result item by its name
+	 *
+	 * @param name the item path or file name
+	 * @return the item or <code>null</code> if there are none having that name
+	 */
+	public Item get( String name ) {
+		for( Item item : items ) {
+			if( name.equals(item.data.name) || name.equals(FilenameUtils.getName(item.data.name)) ) return item;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s [status=%s, items=%s]", requestId, result != null ? result.status : null, items);
+	}
+}
@@ -0,0 +1,223 @@
+package org.tcoffee.client;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.exception.DeadlineExceededException;
+import org.tcoffee.client.exception.WaitResultTimeout;
+import org.tcoffee.client.util.DaemonThreadFactory;
+import org.tcoffee.client.util.ResultFuture;
+
+/**
+ * Wait for the completion of many requests using a fixed number of threads.
+ * <p>
+ * All the outstanding request IDs are tracked by a single hashed timer wheel: a timer thread advances the wheel
+ * every tick and hands the due requests to a small pool of workers, which query the status by
+ * {@link TCoffeeClient#getResultFor(String)}. When a request is not running anymore its future is completed and
+ * it is removed from the wheel, otherwise it is rescheduled after the delay defined by the client {@link PollPolicy}.
+ *
+ */
+public class ResultPoller {
+
+	private static Logger log = LoggerFactory.getLogger(ResultPoller.class);
+
+	/*
+	 * a request tracked by the wheel
+	 */
+	class Entry {
+		final TCoffeeClient client;
+		final String requestId;
+		final long begin = System.currentTimeMillis();
+		final ResultFuture<ResultData> future = new ResultFuture<ResultData>();
+		int rounds;
+		long delay;
+
+		Entry( TCoffeeClient client, String requestId ) {
+			this.client = client;
+			this.requestId = requestId;
+		}
+	}
+
+	private final TCoffeeClient client;
+
+	private final long tickMillis;
+
+	private final List<Entry>[] wheel;
+
+	private int cursor;
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final ScheduledExecutorService timer;
+
+	private final ExecutorService workers;
+
+	/**
+	 * Create a poller using 4 workers and a wheel of 512 slots with a tick of 100 milliseconds
+	 *
+	 * @param client the client used to query the requests status
+	 */
+	public ResultPoller( TCoffeeClient client ) {
+		this(client, 4, 100, 512);
+	}
+
+	/**
+	 * Create the poller
+	 *
+	 * @param client the client used to query the requests status
+	 * @param workers the number of threads querying the server
+	 * @param tickMillis the wheel resolution in milliseconds
+	 * @param slots the number of slots in the wheel
+	 */
+	@SuppressWarnings({"unchecked","rawtypes"})
+	public ResultPoller( TCoffeeClient client, int workers, long tickMillis, int slots ) {
+		this.client = client;
+		this.tickMillis = tickMillis;
+		this.wheel = new List[slots];
+		for( int i=0; i<slots; i++ ) {
+			wheel[i] = new ArrayList<Entry>();
+		}
+
+		this.workers = Executors.newFixedThreadPool(workers, new DaemonThreadFactory("poller-worker"));
+		this.timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("poller-timer"));
+		this.timer.scheduleAtFixedRate( new Runnable() {
+			public void run() {
+				tick();
+			}}, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Start tracking the specified request. The first poll is issued on the next tick.
+	 *
+	 * @param requestId the request unique identifier
+	 * @return the future request result, completed when the status leaves "Running" or failed with
+	 * {@link WaitResultTimeout} when the client poll timeout expires
+	 */
+	public ResultFuture<ResultData> watch( String requestId ) {
+		return watch(client, requestId);
+	}
+
+	/**
+	 * Start tracking a request using a specific client to query its status, e.g. because the request
+	 * has been accepted by a host different from the poller default one
+	 *
+	 * @param client the client used to query the request status
+	 * @param requestId the request unique identifier
+	 * @return the future request result
+	 */
+	public ResultFuture<ResultData> watch( TCoffeeClient client, String requestId ) {
+		Entry entry = new Entry(client, requestId);
+		pending.incrementAndGet();
+		schedule(entry, 0);
+		return entry.future;
+	}
+
+	/**
+	 * @return the number of requests still waiting for a result
+	 */
+	public int size() {
+		return pending.get();
+	}
+
+	/**
+	 * Stop the poller, the requests still outstanding are not notified
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	/*
+	 * place the entry in the slot expiring after the specified delay
+	 */
+	synchronized void schedule( Entry entry, long delayMillis ) {
+		long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+		entry.rounds = (int) ((ticks-1) / wheel.length);
+		wheel[ (int)((cursor + ticks) % wheel.length) ].add(entry);
+	}
+
+	/*
+	 * advance the wheel and dispatch the expired entries
+	 */
+	void tick() {
+		List<Entry> expired = new ArrayList<Entry>();
+
+		synchronized (this) {
+			cursor = (cursor+1) % wheel.length;
+			Iterator<Entry> it = wheel[cursor].iterator();
+			while( it.hasNext() ) {
+				Entry entry = it.next();
+				if( entry.rounds > 0 ) {
+					entry.rounds--;
+				}
+				else {
+					it.remove();
+					expired.add(entry);
+				}
+			}
+		}
+
+		for( final Entry entry : expired ) {
+			workers.execute( new Runnable() {
+				public void run() {
+					poll(entry);
+				}} );
+		}
+	}
+
+	void poll( Entry entry ) {
+		TCoffeeClient client = entry.client;
+		if( entry.future.isDone() ) {
+			pending.decrementAndGet();
+			return;
+		}
+
+		try {
+			ResultData result = client.getResultFor(entry.requestId);
+			if( result == null ) {
+				throw new ClientException("Missing result status for request # %s", entry.requestId);
+			}
+			long waited = System.currentTimeMillis()-entry.begin;
+			if( !result.isStatusRUNNING() ) {
+				client.recordResult(entry.requestId, result);
+				complete(entry, result, null);
+			}
+			else if( waited > client.getPollTimeoutSecs()*1000L ) {
+				complete(entry, null, new WaitResultTimeout("The submitted request # %s does not complete in the expected time", entry.requestId));
+			}
+			else if( client.getDeadline() != null && client.getDeadline().isExpired() ) {
+				complete(entry, null, new DeadlineExceededException("The submitted request # %s does not complete in the expected time", entry.requestId));
+			}
+			else {
+				entry.delay = client.nextPollDelay(result, waited, entry.delay);
+				schedule(entry, client.getDeadline() != null ? Math.min(entry.delay, client.getDeadline().remaining()) : entry.delay);
+			}
+		}
+		catch( RuntimeException e ) {
+			/* any failure completes the entry, otherwise its waiters would hang */
+			log.debug("Error polling request # {}: {}", entry.requestId, e.getMessage());
+			complete(entry, null, e);
+		}
+	}
+
+	private void complete( Entry entry, ResultData result, Throwable error ) {
+		pending.decrementAndGet();
+		if( error != null ) {
+			entry.future.setException(error);
+		}
+		else {
+			entry.future.set(result);
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.tcoffee.client;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.util.Sys;
+
+/**
+ * Keep the history of the elapsed time of the requests completed for each service, 
+ * as reported by {@link ResultData#elapsedTime}. 
+ * <p>
+ * When created with a file the history is loaded from it on first use and saved back on each update, 
+ * so that it is shared across the client executions  
+ * 
+ */
+public class ServiceStats {
+
+	/** The number of samples kept for each service */
+	static final int MAX_SAMPLES = 50;
+	
+	private File file;
+	
+	private Map<String,LinkedList<Long>> samples = new HashMap<String, LinkedList<Long>>();
+	
+	private boolean loaded;
+	
+	/**
+	 * Create an in-memory history 
+	 */
+	public ServiceStats() { 
+	}
+	
+	/**
+	 * Create the history persisted to the specified file 
+	 * 
+	 * @param file a properties file, it will be created on the first update if not exists
+	 */
+	public ServiceStats( File file ) { 
+		this.file = file;
+	}
+	
+	/**
+	 * Record the elapsed time of a completed request  
+	 * 
+	 * @param result the completed request result 
+	 */
+	public void record( ResultData result ) { 
+		if( result != null && result.isStatusDONE() ) { 
+			record( result.service, result.elapsedTime );
+		}
+	}
+	
+	public synchronized void record( String service, long elapsedTime ) { 
+		if( StringUtils.isEmpty(service) || elapsedTime <= 0 ) { 
+			return;
+		}
+		
+		load();
+		LinkedList<Long> list = samples.get(service);
+		if( list == null ) { 
+			samples.put(service, list = new LinkedList<Long>());
+		}
+		list.add(elapsedTime);
+		if( list.size() > MAX_SAMPLES ) { 
+			list.removeFirst();
+		}
+		
+		save();
+	}
+	
+	/**
+	 * The specified percentile of the elapsed times recorded for a service 
+	 * 
+	 * @param service the service name 
+	 * @param percent a value between 0 and 100 e.g. 50 for the median 
+	 * @return the elapsed time in milliseconds or <code>null</code> if there is not history for the specified service
+	 */
+	public synchronized Long percentile( String service, double percent ) { 
+		load();
+		List<Long> list = service != null ? samples.get(service) : null;
+		if( list == null || list.isEmpty() ) { 
+			return null;
+		}
+		
+		List<Long> sorted = new ArrayList<Long>(list);
+		Collections.sort(sorted);
+		int index = (int) Math.ceil( percent / 100.0 * sorted.size() ) - 1;
+		return sorted.get( Math.max(0, Math.min(index, sorted.size()-1)) );
+	}
+	
+	/**
+	 * @return the median of the elapsed times recorded for the specified service 
+	 */
+	public Long median( String service ) { 
+		return percentile(service, 50);
+	}
+	
+	/*
+	 * read the history file the first time it is required 
+	 */
+	synchronized void load() { 
+		if( loaded ) { 
+			return;
+		}
+		loaded = true;
+		if( file == null || !file.exists() ) { 
+			return;
+		}
+
+		Properties props = new Properties();
+		try {
+			FileReader reader = new FileReader(file);
+			try { 
+				props.load(reader);
+			}
+			finally { 
+				reader.close();
+			}
+		}
+		catch( IOException e ) { 
+			Sys.debug("Unable to read service stats file: %s", file);
+			return;
+		}
+		
+		for( String service : props.stringPropertyNames() ) { 
+			LinkedList<Long> list = new LinkedList<Long>();
+			for( String value : StringUtils.split(props.getProperty(service), ',') ) { 
+				try { 
+					list.add( Long.parseLong(value.trim()) );
+				}
+				catch( NumberFormatException e ) { 
+					Sys.debug("Invalid elapsed time value: '%s'", value);
+				}
+			}
+			samples.put(service, list);
+		}
+	}
+	
+	void save() { 
+		if( file == null ) { 
+			return;
+		}
+		
+		Properties props = new Properties();
+		for( Map.Entry<String, LinkedList<Long>> entry : samples.entrySet() ) { 
+			props.setProperty(entry.getKey(), StringUtils.join(entry.getValue(), ','));
+		}
+		
+		try {
+			FileWriter writer = new FileWriter(file);
+			try { 
+				props.store(writer, null);
+			}
+			finally { 
+				writer.close();
+			}
+		} 
+		catch (IOException e) {
+			Sys.debug(e);
+		}
+	}
+	
+}
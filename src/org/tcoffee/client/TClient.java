@@ -1,15 +1,18 @@
 package org.tcoffee.client;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.log4j.Level;
 import org.tcoffee.client.cli.CommandLine;
 import org.tcoffee.client.exception.ClientException;
 import org.tcoffee.client.util.IO;
 import org.tcoffee.client.util.KeyValue;
+import org.tcoffee.client.util.Logging;
+import org.tcoffee.client.util.Retry;
 import org.tcoffee.client.util.Sys;
 import org.tcoffee.client.util.Version;
 
@@ -21,6 +24,8 @@ import org.tcoffee.client.util.Version;
  */
 public class TClient extends AbstractClient {
 
+	/* the standard input content, it can be read just once */
+	private static File stdinFile;
 	
 	/**
 	 * Client entry point 
@@ -29,6 +34,11 @@ public class TClient extends AbstractClient {
 	 */
 	public static void main(String[] args) { 
 	
+		Logging.configure();
+		Runtime.getRuntime().addShutdownHook( new Thread() {
+			public void run() {
+				Sys.debug("HTTP %s", Retry.metrics());
+			}} );
 		new TClient(args).execute();
 	}
 	
@@ -55,7 +65,7 @@ public class TClient extends AbstractClient {
 		 * prepare the command line parser 
 		 */
 		cmd = new CommandLine();
-		cmd.addOption("host", "The remote host to which connect", null, "tcoffee.crg.cat", true);
+		cmd.addOption("host", "The remote host to which connect, or a comma separated list of mirror hosts", null, "tcoffee.crg.cat", true);
 		cmd.addOption("bundle", "The remote bundle serving the request", null, "tcoffee", true);
 		cmd.addOption("quiet", "Run quietly without any console output");
 		cmd.addOption("debug", "Run showing debug informations");
@@ -63,13 +73,18 @@ public class TClient extends AbstractClient {
 		cmd.addOption("out-path", "The path where to save the output files");
 		cmd.addOption("flat-path", "Do not create subfolder for the server returned files","true|false","true",true);
 		cmd.addOption("poll-timeout", "Max time to wait for the request completion (seconds)", "n", "1h", false);
-		cmd.addOption("poll-sleep", "Time to sleep between each poll requests", "n", "5s", false);
+		cmd.addOption("timeout", "Max time to complete the whole operation, including the uploads and downloads", "n", null, false);
+		cmd.addOption("poll-sleep", "Max time to sleep between two poll requests", "n", "5s", false);
 		cmd.addOption("help", "Print this help");
 		cmd.addOption("update-client", "Update the client and exit");
 		cmd.addOption("ver", "Print the client version number");
 		cmd.addOption("list", "Print the list of programs exposed by the server");
 		cmd.addOption("program", "Invoke the execution of a program exposed by the server", "name", null, true);
 		cmd.addOption("download", "Download result fiels for teh specified request", "512bc2d0", null, true);
+		cmd.addOption("include", "Download only the result files matching these comma separated patterns", "[type:|format:|name:]glob,..", null, false);
+		cmd.addOption("exclude", "Do not download the result files matching these comma separated patterns", "[type:|format:|name:]glob,..", null, false);
+		cmd.addOption("no-cache", "Submit the request even if its result is available in the local cache");
+		cmd.addOption("hedge", "Submit a duplicate to another mirror host of a request still running after this percentile of the service elapsed times", "1..99", null, false);
 		
 	
 		/*
@@ -81,14 +96,14 @@ public class TClient extends AbstractClient {
 		 * check for debug mode
 		 */
 		if( cmd.hasOption("debug")) { 
-			Sys.debug = true;
-			Sys.quiet = false;
-			org.apache.log4j.Logger.getRootLogger().setLevel( Level.DEBUG );
+			Sys.setDebug(true);
+			Sys.setQuiet(false);
+			Logging.setDebug(true);
 		}
 		
 		if( cmd.hasOption("quiet" )) { 
-			Sys.quiet = true;
-			Sys.debug = false;
+			Sys.setQuiet(true);
+			Sys.setDebug(false);
 		}
 		
 	}
@@ -104,7 +119,7 @@ public class TClient extends AbstractClient {
 		 */
 		if( cmd.hasOption("ping")) { 
 			client.ping();
-			System.exit(0);
+			Sys.exit(0);
 		}
 		
 		/*
@@ -112,7 +127,7 @@ public class TClient extends AbstractClient {
 		 */
 		if( cmd.hasOption("list")) { 
 			client.printServices();
-			System.exit(0);
+			Sys.exit(0);
 		}
 		
 		/*
@@ -120,9 +135,7 @@ public class TClient extends AbstractClient {
 		 */
 		if( cmd.hasOption("program") ) { 
 			
-			// check all argument to resolve the specied files as string values
-			//TODO this handle only text files
-			// future release should be able to manage binary files 
+			// the arguments in the form 'file:path' are uploaded as file parts, 'file:-' uploads the standard input
 			List<KeyValue> params = new ArrayList<KeyValue>();
 			for( String arg : cmd.getArguments() ) { 
 				KeyValue pair = KeyValue.parse(arg);
@@ -137,7 +150,7 @@ public class TClient extends AbstractClient {
 			 */
 			try { 
 				client.runProgram( cmd.getOption("program"), params );
-				System.exit(0);
+				Sys.exit(0);
 			}
 			catch( Exception e ) { 
 				Sys.error(e);
@@ -153,6 +166,10 @@ public class TClient extends AbstractClient {
 	}
 
 
+	/*
+	 * resolve the 'file:' arguments to the {@link File} to upload, the file content is streamed 
+	 * from the disk when the request is sent 
+	 */
 	static Object normalizeFiles(Object eventuallyFileArgument)  {
 		if( !(eventuallyFileArgument instanceof String)) { 
 			return eventuallyFileArgument;
@@ -160,16 +177,51 @@ public class TClient extends AbstractClient {
 		
 		String str = (String) eventuallyFileArgument;
 		if( str.startsWith("file:") ) { 
-			File file = new File(str.substring(5).trim());
-			try {
-				return IO.readContentAsString(file).trim();
-			} catch (IOException e) {
-				throw new ClientException(e, "The entered file does not exist: '%s'", file);
+			String path = str.substring(5).trim();
+			if( "-".equals(path) ) { 
+				return stdin(System.in);
+			}
+			
+			File file = new File(path);
+			if( !file.isFile() ) { 
+				throw new ClientException("The entered file does not exist: '%s'", file);
 			}
+			return file;
 		}
 		
 		return str;
 	}
+	
+	/*
+	 * the standard input is saved to a temporary file named 'stdin', so that the request 
+	 * can be sent again when retried 
+	 */
+	static synchronized File stdin( InputStream in ) { 
+		if( stdinFile != null ) { 
+			return stdinFile;
+		}
+		
+		try { 
+			File dir = File.createTempFile("t-client", "");
+			dir.delete();
+			dir.mkdir();
+			dir.deleteOnExit();
+			
+			File file = new File(dir, "stdin");
+			file.deleteOnExit();
+			FileOutputStream out = new FileOutputStream(file);
+			try { 
+				IO.write(in, out);
+			}
+			finally { 
+				out.close();
+			}
+			return stdinFile = file;
+		}
+		catch( IOException e ) { 
+			throw new ClientException(e, "Unable to read the standard input");
+		}
+	}
 
 
 	
@@ -1,11 +1,20 @@
 package org.tcoffee.client;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tcoffee.client.data.ResponseData;
@@ -15,13 +24,14 @@ import org.tcoffee.client.data.ServiceData;
 import org.tcoffee.client.data.SubmitData;
 import org.tcoffee.client.exception.ClientException;
 import org.tcoffee.client.exception.ServerResponseException;
+import org.tcoffee.client.exception.DeadlineExceededException;
 import org.tcoffee.client.exception.WaitResultTimeout;
-import org.tcoffee.client.exception.XmlResponseException;
+import org.tcoffee.client.util.DaemonThreadFactory;
+import org.tcoffee.client.util.Deadline;
 import org.tcoffee.client.util.Http;
 import org.tcoffee.client.util.IO;
 import org.tcoffee.client.util.KeyValue;
 import org.tcoffee.client.util.Sys;
-import org.tcoffee.client.util.XML;
 
 
 /**
@@ -37,10 +47,32 @@ public class TCoffeeClient {
 	private int pollSleepSecs = 5;
 	
 	private int pollTimeoutSecs = 60;
+	
+	/* the max time for each run, program or download operation, zero for none */
+	private int timeoutSecs;
+	
+	private Deadline deadline;
 
 	/* the downloaded result file */
 	private File resultLogFile;
 	
+	/* the stream to which the log is copied while downloaded */
+	private PrintStream resultLogStream;
+	
+	private volatile boolean resultLogPrinted;
+	
+	/* the stream to which the log is copied while the request is running */
+	private PrintStream followStream;
+	
+	private Http.Echo followEcho;
+	
+	private String followUrl;
+	
+	/* the format of the result item written to the pipe stream */
+	private String pipeFormat;
+	
+	private OutputStream pipeStream;
+	
 	private boolean useFlatPath = true;
 	
 	/* wrap the http connection client */
@@ -64,8 +96,33 @@ public class TCoffeeClient {
 
 	private boolean includeInputDownload;
 	
+	private ItemFilter itemFilter;
+	
 	private boolean async;
 	
+	/* the result files are downloaded on demand through the result handle */
+	private boolean lazy;
+	
+	private ServiceStats stats = new ServiceStats();
+	
+	private PollPolicy pollPolicy = new PollPolicy(stats);
+	
+	private JobJournal journal;
+	
+	private ResultCache cache;
+	
+	private int downloadParallelism = 4;
+	
+	private HostRouter router;
+	
+	/* the percentile of the service elapsed time after which a duplicate request is submitted, zero to disable */
+	private int hedgePercentile;
+	
+	/* the last submission, used to submit the same request to a different host */
+	private String submitUrl;
+	
+	private List<KeyValue> submitParams;
+	
 	
 	/**
 	 * The client constructor, requires the remote host and bundle information 
@@ -80,6 +137,10 @@ public class TCoffeeClient {
 	}
 	
 	String urlFor( String action, KeyValue... params ) { 
+		return urlFor(host, action, params);
+	}
+	
+	String urlFor( String host, String action, KeyValue... params ) { 
 		StringBuilder url = new StringBuilder();
 		url.append("http://") .append(host) .append("/api/") .append(bundle) .append("/");
 		
@@ -123,49 +184,56 @@ public class TCoffeeClient {
 	 */
 	public void run( String cmdline, List<File> files ) { 
 
+		startDeadline();
+		resultLogPrinted = false;
+		followEcho = null;
+		followUrl = null;
 		try { 
-			String uri = urlFor("run");
-
 			/*
-			 * 1.
-			 * the requests is composed by a parameter named 'args'
-			 * containing the target command command line, plus 
-			 * all the files entered named in the form 'file:n' 
-			 * where n is the file index 
+			 * 0. look up for the same request in the local cache 
 			 */
-			List<KeyValue> params = new ArrayList<KeyValue>();
-			params.add( new KeyValue("args", cmdline) ); 
-			
-			int i=0;
-			if( files != null ) for( File file : files ) { 
-				params.add( new KeyValue("file:" + i++, file ) );
+			String key = cacheKey("run", runParams(cmdline, files));
+			if( restoreFromCache(key) ) { 
+				return;
 			}
-
 			
 			/*
-			 * 2. submit the request and get the result status 
+			 * 1. submit the request and get the result status 
 			 */
 			Sys.print("Sending request...");
-			this.submit = submitAlignment(uri, params);
+			http.setUploadProgress(new ConsoleProgress("Sending request..."));
+			try { 
+				submit(cmdline, files);
+			}
+			finally { 
+				http.setUploadProgress(null);
+			}
 			Sys.print("\rRequest acquired with ID: %s\n", submit.requestId);
+			journalSubmit(cmdline);
 			
 			if( async ) { 
+				if( router != null ) router.completed(submit.requestId);
 				return;
 			}
 			
 			/* 
-			 * 3. wait for the result
+			 * 2. wait for the result
 			 */
 			Sys.print("Waiting result...");
 			this.result = waitForResult(submit.requestId);
 			Sys.print("\r");
 			
 			/*
-			 * 4. download result
+			 * 3. download result
 			 */
+			if( lazy ) { 
+				lazyResult(submit.requestId);
+				return;
+			}
 			Sys.print("Downloading result...");
 			downloadResultItems(result);
 			Sys.print("\r");
+			saveToCache(key);
 			
 		}
 		catch( ClientException e ) { 
@@ -176,6 +244,114 @@ public class TCoffeeClient {
 		}
 	}
 	
+	/**
+	 * Upload the data and submit the alignment request without waiting for its completion. 
+	 * <p>
+	 * The requests is composed by a parameter named 'args' containing the target command line, 
+	 * plus all the files entered named in the form 'file:n' where n is the file index 
+	 * 
+	 * @param cmdline the T-Coffee command line 
+	 * @param files the files to upload 
+	 * @return the {@link SubmitData} job information
+	 */
+	public SubmitData submit( String cmdline, List<File> files ) { 
+		route();
+		this.submit = submitAlignment(urlFor("run"), runParams(cmdline, files));
+		return submit;
+	}
+	
+	/*
+	 * select the host for a new request when more hosts are available, the request is then bound to it 
+	 */
+	void route() { 
+		if( router != null ) { 
+			host = router.select();
+		}
+	}
+	
+	/*
+	 * record the current request in the journal, so that it can be resumed if the client is terminated
+	 */
+	void journalSubmit( String cmdline ) { 
+		if( journal != null && submit != null ) { 
+			journal.submitted(submit.requestId, host, bundle, outpath, cmdline);
+		}
+	}
+	
+	/*
+	 * the key of the request in the result cache, null when the cache is not used 
+	 */
+	String cacheKey( String action, List<KeyValue> params ) { 
+		return cache != null && !async && !lazy && pipeFormat == null ? cache.key(bundle + "/" + action, params) : null;
+	}
+	
+	/**
+	 * Copy the result files of a request already processed from the local cache to the output path 
+	 * 
+	 * @param key the request key in the cache 
+	 * @return <code>true</code> if the request result has been restored, <code>false</code> otherwise
+	 */
+	boolean restoreFromCache( String key ) { 
+		ResponseData cached = key != null ? cache.get(key) : null;
+		if( cached == null || cached.result == null ) { 
+			return false;
+		}
+		
+		List<ResultItemData> items = cached.result.items != null ? cached.result.items : new ArrayList<ResultItemData>();
+		for( int i=0; i<items.size(); i++ ) { 
+			if( isDownloadable(items.get(i)) && !cache.item(key, i).exists() ) { 
+				log.debug("Missing cached item: {}", items.get(i).name);
+				return false;
+			}
+		}
+		
+		try { 
+			for( int i=0; i<items.size(); i++ ) { 
+				ResultItemData item = items.get(i);
+				if( !isDownloadable(item) ) continue;
+				
+				File target = targetFor(item);
+				FileUtils.copyFile(cache.item(key, i), target);
+				checkResultLog(item, target);
+			}
+		}
+		catch( IOException e ) { 
+			throw new ClientException(e, "Unable to restore cached result");
+		}
+		
+		this.submit = cached.submit;
+		this.result = cached.result;
+		Sys.println("Result restored from the local cache");
+		return true;
+	}
+	
+	/*
+	 * save the downloaded result in the cache, only when the request completed successfully 
+	 */
+	void saveToCache( String key ) { 
+		if( key == null || result == null || !result.isStatusDONE() || result.items == null ) { 
+			return;
+		}
+		
+		List<File> files = new ArrayList<File>();
+		for( ResultItemData item : result.items ) { 
+			files.add( isDownloadable(item) ? targetFor(item) : null );
+		}
+		cache.put(key, submit, result, files);
+	}
+	
+	List<KeyValue> runParams( String cmdline, List<File> files ) { 
+		List<KeyValue> params = new ArrayList<KeyValue>();
+		params.add( new KeyValue("args", cmdline) ); 
+		
+		int i=0;
+		if( files != null ) for( File file : files ) { 
+			params.add( new KeyValue("file:" + i++, file ) );
+		}
+		
+		return params;
+	}
+	
 
 	/**
 	 * Invoke the specified program using the 
@@ -186,32 +362,52 @@ public class TCoffeeClient {
 	 */
 	public void runProgram(String program, List<KeyValue> params ) {
 
+		startDeadline();
+		resultLogPrinted = false;
+		followEcho = null;
+		followUrl = null;
 		try { 
 			/*
 			 * 1. get the url 
 			 */
+			route();
 			String url = urlFor("submit", new KeyValue("name", program));
+			String key = cacheKey("submit/" + program, params);
 			
-			/*
-			 * 2. submit the request and get the result status 
-			 */
-			Sys.print("Sending request...");
-			this.submit = submitAlignment(url, params);
-			Sys.print("\rRequest acquired with ID: %s\n", submit.requestId);
-		
-			/* 
-			 * 3. wait for the result
-			 */
-			Sys.print("Waiting result...");
-			this.result = waitForResult(submit.requestId);
-			Sys.print("\r");
+			if( !restoreFromCache(key) ) { 
+				/*
+				 * 2. submit the request and get the result status 
+				 */
+				Sys.print("Sending request...");
+				http.setUploadProgress(new ConsoleProgress("Sending request..."));
+				try { 
+					this.submit = submitAlignment(url, params);
+				}
+				finally { 
+					http.setUploadProgress(null);
+				}
+				Sys.print("\rRequest acquired with ID: %s\n", submit.requestId);
+				journalSubmit(program + " " + params);
 			
-			/*
-			 * 4. download result
-			 */
-			Sys.print("Downloading result...");
-			downloadResultItems(result);
-			Sys.print("\r");		
+				/* 
+				 * 3. wait for the result
+				 */
+				Sys.print("Waiting result...");
+				this.result = waitForResult(submit.requestId);
+				Sys.print("\r");
+				
+				/*
+				 * 4. download result
+				 */
+				if( lazy ) { 
+					lazyResult(submit.requestId);
+					return;
+				}
+				Sys.print("Downloading result...");
+				downloadResultItems(result);
+				Sys.print("\r");		
+				saveToCache(key);
+			}
 			
 			Sys.println("Result files have been downloaded in the current folder.");
 		
@@ -248,6 +444,43 @@ public class TCoffeeClient {
 		return "";
 	}
 	
+	/**
+	 * Print the T-Coffee log to the specified stream, copying it by fixed size chunks so that the log is 
+	 * never loaded in memory. Nothing is printed when the log has already been copied to the stream set 
+	 * by {@link #setResultLogStream(PrintStream)} while it was downloaded 
+	 * 
+	 * @param out the stream to which print the log 
+	 */
+	public void printResultLog( PrintStream out ) { 
+		if( resultLogPrinted || resultLogFile == null || !resultLogFile.exists() ) { 
+			return;
+		}
+		
+		try { 
+			FileInputStream in = new FileInputStream(resultLogFile);
+			try { 
+				IO.write(in, out);
+				out.flush();
+			}
+			finally { 
+				in.close();
+			}
+		}
+		catch( IOException e ) { 
+			throw new ClientException(e, "Unable to read result file: %s", resultLogFile);
+		}
+	}
+	
+	/**
+	 * The stream to which the T-Coffee log of a request completed successfully is copied while it is downloaded, 
+	 * so that it is shown before the other result files are downloaded 
+	 * 
+	 * @param out the log stream, <code>null</code> for none 
+	 */
+	public void setResultLogStream( PrintStream out ) { 
+		this.resultLogStream = out;
+	}
+	
 	
 	/**
 	 * Submit the alignment request to the server and returns the {@link SubmitData} job information
@@ -259,15 +492,24 @@ public class TCoffeeClient {
 	SubmitData submitAlignment(String uri, List<KeyValue> pairs) {
 
 		try { 
-			String xml = http.postWithXmlResponse(uri,pairs);
-			ResponseData result = XML.fromXML(xml);
+			submitUrl = uri;
+			submitParams = pairs;
+			ResponseData result = http.postWithResponse(uri,pairs);
 			checkResponse(result);
+			if( router != null && result.submit != null ) { 
+				router.submitted(host, result.submit.requestId);
+			}
 			return result.submit;
 		}
+		catch( ServerResponseException e ) { 
+			throw e;
+		}
 		catch( ClientException e ) { 
+			if( router != null ) router.failed(host);
 			throw e;
 		}
 		catch( Exception e ) { 
+			if( router != null ) router.failed(host);
 			throw new ClientException(e, "Unable to submit request [%s]", uri); 
 		}
 	}
@@ -280,15 +522,23 @@ public class TCoffeeClient {
 	 * @return the alignment result status XML string
 	 */
 	ResultData getResultFor( String requestId ) { 
+		return getResultFor(host, requestId);
+	}
 
-		String url = urlFor( "result", new KeyValue("rid", requestId));
+	ResultData getResultFor( String host, String requestId ) { 
+
+		String url = urlFor( host, "result", new KeyValue("rid", requestId));
 		ResultData result = getData(url).result;
 		return result;
 		
 	}
 
 	/**
-	 * Poll the remote server until the submitted request has been processed 
+	 * Poll the remote server until the submitted request has been processed. 
+	 * <p>
+	 * When hedging is enabled and the request is still running after the configured percentile of its service 
+	 * elapsed time, the same request is submitted to a second host. The first request completing successfully is 
+	 * kept, becoming the client current request, and the other is abandoned.
 	 * 
 	 * @param requestId the request unique indentifier 
 	 * @return
@@ -296,13 +546,47 @@ public class TCoffeeClient {
 	ResultData waitForResult( String requestId ) {
 
 		ResultData result = null;
+		Hedge hedge = null;
+		boolean hedged = false;
 		
-		long now, begin = System.currentTimeMillis();
+		long delay = 0, now, begin = System.currentTimeMillis();
 		do { 
 			
 			result = getResultFor(requestId);
+			if( followStream != null ) { 
+				follow(result);
+			}
 			if( !result.isStatusRUNNING() ) { 
-				break;
+				recordResult(requestId, result);
+				if( hedge == null || result.isStatusDONE() ) { 
+					if( hedge != null ) abandon(hedge.requestId);
+					break;
+				}
+
+				/* the request failed, continue with the duplicate one */
+				abandon(requestId);
+				requestId = promote(hedge);
+				hedge = null;
+				continue;
+			}
+			
+			if( hedge != null ) { 
+				ResultData other = pollHedge(hedge);
+				if( other == null || !other.isStatusRUNNING() ) { 
+					if( other != null ) recordResult(hedge.requestId, other);
+					if( other != null && other.isStatusDONE() ) { 
+						abandon(requestId);
+						promote(hedge);
+						result = other;
+						break;
+					}
+					
+					abandon(hedge.requestId);
+					hedge = null;
+				}
+			}
+			else if( !hedged && (hedge=hedge(result, System.currentTimeMillis()-begin)) != null ) { 
+				hedged = true;
 			}
 			
 			/* 
@@ -312,12 +596,16 @@ public class TCoffeeClient {
 			if( (now-begin) > pollTimeoutSecs*1000 ) { 
 				throw new WaitResultTimeout("The submitted request does not complete in the expected time");
 			}
+			if( deadline != null ) { 
+				deadline.check("request # " + requestId);
+			}
 
 			/* 
-			 * wait before another interation 
+			 * wait before another interation, not beyond the operation deadline
 			 */
+			delay = nextPollDelay(result, now-begin, delay);
 			try {
-				Thread.sleep( pollSleepSecs * 1000 );
+				Thread.sleep( deadline != null ? Math.min(delay, deadline.remaining()) : delay );
 			} catch (InterruptedException e) {
 				log.warn("Result polling interruped");
 			}
@@ -328,56 +616,480 @@ public class TCoffeeClient {
 		
 		return result; 
 	}
+	
+	/*
+	 * write the item having the pipe format to the pipe stream, the other items are not downloaded 
+	 */
+	void pipeResultItem( String requestId, ResultData result ) { 
+		if( !result.isStatusDONE() ) { 
+			return;
+		}
+		
+		ResultItemData item = findItem(result, pipeFormat);
+		if( item == null ) { 
+			throw new ClientException("The request # %s has no result of type: %s", requestId, pipeFormat);
+		}
+		
+		http.getStream(itemUrl(item), pipeStream);
+		if( journal != null ) { 
+			journal.completed(requestId);
+		}
+	}
+	
+	/*
+	 * the first downloadable item having the specified format, or the specified type when no item has that format 
+	 */
+	ResultItemData findItem( ResultData result, String format ) { 
+		ResultItemData byType = null;
+		for( ResultItemData item : result.items ) { 
+			if( !isDownloadable(item) ) continue;
+			if( format.equals(item.format) ) return item;
+			if( byType == null && format.equals(item.type) ) byType = item;
+		}
+		return byType;
+	}
+	
+	/**
+	 * Write the result item having the specified format straight to a stream e.g. the standard output, 
+	 * instead of saving the result files. The result cache is not used in this mode. 
+	 * 
+	 * @param format the format of the item to write, or its type when no item has that format e.g. <code>fasta_aln</code>, 
+	 * <code>null</code> to save the result files as usual
+	 * @param out the stream to which write the item content
+	 */
+	public void setPipe( String format, OutputStream out ) { 
+		this.pipeFormat = format;
+		this.pipeStream = out;
+	}
+	
+	public String getPipeFormat() { 
+		return pipeFormat;
+	}
+	
+	/*
+	 * copy to the follow stream the log content added since the previous poll. The content is appended to 
+	 * the partial log file, so that only the missing part is downloaded when the request completes 
+	 */
+	void follow( ResultData result ) { 
+		ResultItemData item = null;
+		if( result != null && result.items != null ) for( ResultItemData it : result.items ) { 
+			if( isResultLog(it) && isDownloadable(it) ) item = it;
+		}
+		if( item == null ) { 
+			return;
+		}
+		
+		String url = itemUrl(item);
+		if( followEcho == null || !url.equals(followUrl) ) { 
+			/* the log of a different request, e.g. after hedging */
+			followEcho = new Http.Echo(followStream);
+			followUrl = url;
+		}
+		
+		try { 
+			if( followEcho.getPosition() == 0 ) Sys.print("\r");
+			http.tail(url, targetFor(item), followEcho);
+		}
+		catch( ClientException e ) { 
+			/* the log is not available yet, try again on the next poll */
+			log.debug("Unable to follow log [{}]: {}", url, e.getMessage());
+		}
+	}
+	
+	/**
+	 * The stream to which the T-Coffee log is copied while the request is running, fetching on each poll 
+	 * just the content added since the previous one 
+	 * 
+	 * @param out the stream to follow the log, <code>null</code> to disable it 
+	 */
+	public void setFollowStream( PrintStream out ) { 
+		this.followStream = out;
+	}
+	
+	/*
+	 * print the upload progress on the console, at most twice a second 
+	 */
+	static class ConsoleProgress implements Http.Progress { 
+		
+		final String message;
+		
+		long last;
+		
+		int width;
+		
+		ConsoleProgress( String message ) { 
+			this.message = message;
+		}
+		
+		public void update(long sent, long total) {
+			long now = System.currentTimeMillis();
+			boolean done = total >= 0 && sent >= total;
+			if( now-last < 500 && !done ) { 
+				return;
+			}
+			last = now;
+			
+			String line = total > 0 
+					? String.format("%s %s%% (%s KB)", message, sent * 100 / total, sent / 1024) 
+					: String.format("%s %s KB", message, sent / 1024);
+			
+			/* clear the previous line when completed, the message is followed by the request ID */
+			Sys.print("\r%s", done ? StringUtils.repeat(" ", width) + "\r" + message : line);
+			width = Math.max(width, line.length());
+		}
+	}
+	
+	/*
+	 * a duplicate of the current request submitted to a different host 
+	 */
+	static class Hedge { 
+		final String host;
+		final SubmitData submit;
+		final String requestId;
+		
+		Hedge( String host, SubmitData submit ) { 
+			this.host = host;
+			this.submit = submit;
+			this.requestId = submit.requestId;
+		}
+	}
+	
+	/*
+	 * submit a duplicate of the current request when it is running for longer than the hedge percentile 
+	 * of its service elapsed time 
+	 */
+	Hedge hedge( ResultData result, long elapsed ) { 
+		if( hedgePercentile <= 0 || router == null || submitUrl == null ) { 
+			return null;
+		}
+		
+		Long threshold = result != null ? stats.percentile(result.service, hedgePercentile) : null;
+		if( threshold == null || Math.max(elapsed, result.elapsedTime) < threshold ) { 
+			return null;
+		}
+		
+		String other = router.select(host);
+		if( other == null ) { 
+			return null;
+		}
+		
+		try { 
+			String url = "http://" + other + submitUrl.substring( ("http://" + host).length() );
+			ResponseData response = http.postWithResponse(url, submitParams);
+			checkResponse(response);
+			
+			Hedge hedge = new Hedge(other, response.submit);
+			router.submitted(other, hedge.requestId);
+			if( journal != null && submit != null ) { 
+				JobJournal.Entry entry = journal.get(submit.requestId);
+				journal.submitted(hedge.requestId, other, bundle, outpath, entry != null ? entry.cmdline : null);
+			}
+			Sys.debug("Request # %s running for %s ms, submitted a duplicate to host %s with ID: %s", submit != null ? submit.requestId : null, elapsed, other, hedge.requestId);
+			return hedge;
+		}
+		catch( Exception e ) { 
+			log.debug("Unable to submit hedge request to host: " + other, e);
+			router.failed(other);
+			return null;
+		}
+	}
+	
+	/*
+	 * poll the duplicated request, null when its host cannot be reached
+	 */
+	ResultData pollHedge( Hedge hedge ) { 
+		try { 
+			return getResultFor(hedge.host, hedge.requestId);
+		}
+		catch( Exception e ) { 
+			log.debug("Unable to poll hedge request # " + hedge.requestId, e);
+			return null;
+		}
+	}
+	
+	/*
+	 * the duplicated request becomes the client current one 
+	 */
+	String promote( Hedge hedge ) { 
+		this.host = hedge.host;
+		this.submit = hedge.submit;
+		return hedge.requestId;
+	}
+	
+	/*
+	 * stop tracking a request whose result is no longer needed 
+	 */
+	void abandon( String requestId ) { 
+		Sys.debug("Abandoning request # %s", requestId);
+		if( router != null ) router.completed(requestId);
+		if( journal != null ) journal.completed(requestId);
+	}
+	
+	/**
+	 * The time to wait before polling again a running request, as defined by the {@link PollPolicy} 
+	 * using the poll sleep time as upper bound 
+	 * 
+	 * @param result the last status returned by the server 
+	 * @param waited the time elapsed since the request submission (millis)
+	 * @param previous the previous delay, zero for the first one (millis)
+	 * @return the next delay in millis 
+	 */
+	long nextPollDelay( ResultData result, long waited, long previous ) { 
+		return pollPolicy.nextDelay(result, waited, previous, pollSleepSecs * 1000L);
+	}
+	
+	/**
+	 * Record the final status of a request in the service history and in the job journal 
+	 */
+	void recordResult( String requestId, ResultData result ) { 
+		stats.record(result);
+		if( journal != null ) { 
+			journal.status(requestId, result.status);
+		}
+		if( router != null ) { 
+			router.completed(requestId);
+		}
+	}
 
 
 	
 	void downloadResultItems( ResultData result ) { 
+		downloadResultItems(getRequestId(), result);
+	}
+	
+	/**
+	 * Download the result items of the specified request, skipping the ones the journal reports as already downloaded. 
+	 * <p>
+	 * The T-Coffee log file is downloaded first, then the other items are downloaded 
+	 * concurrently using at most {@link #getDownloadParallelism()} connections 
+	 */
+	void downloadResultItems( final String requestId, ResultData result ) { 
 		if( result == null || result.items == null ) { 
 			return;
 		}
+		
+		if( pipeFormat != null ) { 
+			pipeResultItem(requestId, result);
+			return;
+		}
 
-		String base = host;
-		if( base.indexOf("/") != -1 ) { 
-			base = base.substring( 0, base.indexOf("/") );
+		List<ResultItemData> items = new ArrayList<ResultItemData>();
+		for( ResultItemData item : result.items ) { 
+			if( !isDownloadable(item) ) { 
+				log.debug("Skipping result file: {}", item.name);
+				continue;
+			}
+			
+			if( isResultLog(item) && followEcho != null && itemUrl(item).equals(followUrl) ) { 
+				/* just the part not tailed yet */
+				downloadItem(requestId, item, followEcho);
+			}
+			else if( isResultLog(item) ) { 
+				downloadItem(requestId, item, result.isStatusDONE() && resultLogStream != null ? new Http.Echo(resultLogStream) : null);
+			}
+			else { 
+				items.add(item);
+			}
 		}
 		
-		base = "http://" + base;
+		if( downloadParallelism <= 1 || items.size() <= 1 ) { 
+			for( ResultItemData item : items ) { 
+				downloadItem(requestId, item);
+			}
+		}
+		else { 
+			downloadConcurrently(requestId, items);
+		}
 		
-		for( ResultItemData item : result.items ) { 
-			if( "input_file".equals(item.type) && !includeInputDownload ) { 
-				// do not download the input file(s)
-				continue;
+		if( journal != null && !result.isStatusRUNNING() ) { 
+			journal.completed(requestId);
+		}
+	}
+	
+	private void downloadConcurrently( final String requestId, List<ResultItemData> items ) { 
+		ExecutorService executor = Executors.newFixedThreadPool( Math.min(downloadParallelism, items.size()), new DaemonThreadFactory("download") );
+		try { 
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for( final ResultItemData item : items ) { 
+				futures.add( executor.submit( new Runnable() {
+					public void run() {
+						downloadItem(requestId, item);
+					}} ));
 			}
 			
-			String uri = base + item.webpath;
-
-			File path = new File(item.name);
-			String sName = useFlatPath ? path.getName() : path.toString();
-			File target = outpath != null
-						? new File(outpath, sName) 
-						: new File(sName);
-
-			File parent = target.getAbsoluteFile().getParentFile();
-			if( parent != null && !parent.exists() && !parent.mkdirs() ) { 
-				throw new ClientException("Cannot create target path: '%s'", parent);
+			/* 
+			 * wait for all the downloads, reporting the first error 
+			 */
+			ClientException error = null;
+			for( Future<?> future : futures ) { 
+				try { 
+					future.get();
+				}
+				catch( ExecutionException e ) { 
+					if( error == null ) { 
+						error = e.getCause() instanceof ClientException 
+							? (ClientException) e.getCause() 
+							: new ClientException(e.getCause(), "Unable to download result files");
+					}
+				}
+				catch( InterruptedException e ) { 
+					throw new ClientException(e, "Download interrupted");
+				}
 			}
-			http.getFile( uri, target );
 			
-			/* detect the T-coffee log file */
-			if( "system_file".equals(item.type) && "log".equals(item.format) && target.exists()) { 
-				resultLogFile = target;
+			if( error != null ) { 
+				throw error;
 			}
 		}
+		finally { 
+			executor.shutdownNow();
+		}
+	}
+	
+	void downloadItem( String requestId, ResultItemData item ) { 
+		downloadItem(requestId, item, null);
+	}
+	
+	/*
+	 * download the item, copying it to the specified stream as well while it is received 
+	 */
+	void downloadItem( String requestId, ResultItemData item, Http.Echo echo ) { 
+		File target = targetFor(item);
+		if( journal != null && journal.isDownloaded(requestId, target) ) { 
+			log.debug("Skipping file already downloaded: {}", target);
+		}
+		else { 
+			if( echo != null ) { 
+				if( echo.getPosition() == 0 ) Sys.print("\r");
+				http.getFile( itemUrl(item), target, echo );
+			}
+			else { 
+				http.getFile( itemUrl(item), target );
+			}
+			if( echo != null ) resultLogPrinted = true;
+			if( journal != null ) journal.downloaded(requestId, target);
+		}
+		
+		/* detect the T-coffee log file */
+		checkResultLog(item, target);
+	}
+	
+	/**
+	 * @return the root url to which the result items web paths are relative 
+	 */
+	String baseUrl() { 
+		return baseUrl(host);
+	}
+	
+	String baseUrl( String host ) { 
+		String base = host;
+		if( base.indexOf("/") != -1 ) { 
+			base = base.substring( 0, base.indexOf("/") );
+		}
+		
+		return "http://" + base;
+	}
+	
+	String itemUrl( ResultItemData item ) { 
+		return baseUrl() + item.webpath;
+	}
+	
+	boolean isDownloadable( ResultItemData item ) { 
+		// do not download the input file(s)
+		if( "input_file".equals(item.type) && !includeInputDownload ) { 
+			return false;
+		}
+		
+		return itemFilter == null || itemFilter.accept(item);
+	}
+	
+	/**
+	 * The local file where the specified result item has to be saved. The parent folder is created if it does not exist. 
+	 */
+	File targetFor( ResultItemData item ) { 
+		File path = new File(item.name);
+		String sName = useFlatPath ? path.getName() : path.toString();
+		File target = outpath != null
+					? new File(outpath, sName) 
+					: new File(sName);
+
+		File parent = target.getAbsoluteFile().getParentFile();
+		if( parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists() ) { 
+			throw new ClientException("Cannot create target path: '%s'", parent);
+		}
+		
+		return target;
+	}
+	
+	boolean isResultLog( ResultItemData item ) { 
+		return "system_file".equals(item.type) && "log".equals(item.format);
+	}
+	
+	void checkResultLog( ResultItemData item, File target ) { 
+		if( isResultLog(item) && target.exists()) { 
+			resultLogFile = target;
+		}
+	}
+	
+	/*
+	 * the files of a lazy result are fetched by the caller, the request is no longer pending 
+	 */
+	void lazyResult( String requestId ) { 
+		if( journal != null && result != null && !result.isStatusRUNNING() ) { 
+			journal.completed(requestId);
+		}
+	}
+	
+	/**
+	 * The result of the last request, whose files are downloaded the first time they are accessed. 
+	 * Use it together with {@link #setLazyDownload(boolean)} so that {@link #run(String, List)} does not 
+	 * download them in advance 
+	 * 
+	 * @return the result handle or <code>null</code> if there is no result 
+	 */
+	public ResultHandle getResultHandle() { 
+		return result != null ? new ResultHandle(this, host, getRequestId(), result) : null;
+	}
+	
+	/**
+	 * Query the status of the specified request without downloading any file 
+	 * 
+	 * @param requestId the request unique identifier 
+	 * @return the request result, whose files are downloaded the first time they are accessed 
+	 */
+	public ResultHandle getResultHandle( String requestId ) { 
+		startDeadline();
+		return new ResultHandle(this, host, requestId, getResultFor(requestId));
+	}
+	
+	/*
+	 * download an item of a lazy result from the host that processed the request. It is a new operation, 
+	 * it does not share the deadline of the request and it can be invoked while the client executes another one 
+	 */
+	File fetchItem( String host, String requestId, ResultItemData item ) { 
+		File target = targetFor(item);
+		if( journal != null && journal.isDownloaded(requestId, target) ) { 
+			log.debug("Skipping file already downloaded: {}", target);
+			return target;
+		}
+		
+		Http fetch = new Http();
+		fetch.setRetry(http.getRetry());
+		fetch.setDeadline(timeoutSecs > 0 ? Deadline.in(timeoutSecs * 1000L) : null);
+		fetch.getFile(baseUrl(host) + item.webpath, target);
+		if( journal != null ) journal.downloaded(requestId, target);
+		return target;
 	}
 	
 	public void downloadFiles( String requestId ) {
 
+		startDeadline();
 		result = getResultFor(requestId);
 		if( result.isStatusRUNNING() ) { 
 			Sys.println("Request # %s is still running, cannot download result.", requestId);
 		}
 		
-		downloadResultItems(result);
+		downloadResultItems(requestId, result);
 		
 	}
 
@@ -412,20 +1124,9 @@ public class TCoffeeClient {
 	}
 	
 	ResponseData getData( String url ) { 
-		String xml="(none)";
-		try {
-			xml = http.getXml(url);
-			ResponseData response = XML.fromXML(xml);
-			checkResponse(response);
-			return response;
-		}
-		catch( ClientException e ) { 
-			throw e;
-		}
-		catch( Exception e ) { 
-			throw new XmlResponseException(e,"Invalid XML server response:\n%s", xml);
-		}
-		
+		ResponseData response = http.getResponse(url);
+		checkResponse(response);
+		return response;
 	}
 	
 	/**
@@ -445,7 +1146,103 @@ public class TCoffeeClient {
 	}
 	
 	/**
-	 * Setter for polling sleep time 
+	 * The history of the requests elapsed time used to predict when a request completes 
+	 * 
+	 * @param stats a {@link ServiceStats} instance 
+	 */
+	public void setServiceStats( ServiceStats stats ) { 
+		this.stats = stats;
+		this.pollPolicy = new PollPolicy(stats);
+	}
+	
+	public ServiceStats getServiceStats() { 
+		return stats;
+	}
+	
+	/**
+	 * The journal recording the submitted requests, downloaded files and status transitions 
+	 * 
+	 * @param journal a {@link JobJournal} instance or <code>null</code> to disable it 
+	 */
+	public void setJournal( JobJournal journal ) { 
+		this.journal = journal;
+	}
+	
+	public JobJournal getJournal() { 
+		return journal;
+	}
+	
+	/**
+	 * The local cache of the downloaded results, used to skip the submission of a request already processed 
+	 * 
+	 * @param cache a {@link ResultCache} instance or <code>null</code> to disable it 
+	 */
+	public void setResultCache( ResultCache cache ) { 
+		this.cache = cache;
+	}
+	
+	public ResultCache getResultCache() { 
+		return cache;
+	}
+	
+	/**
+	 * The max number of result files downloaded at the same time for a request 
+	 * 
+	 * @param value the number of concurrent downloads, 1 to download the files sequentially 
+	 */
+	public void setDownloadParallelism( int value ) { 
+		this.downloadParallelism = Math.max(1, value);
+	}
+	
+	public int getDownloadParallelism() { 
+		return downloadParallelism;
+	}
+	
+	/**
+	 * Route the new requests across the hosts of the specified router 
+	 */
+	public void setRouter( HostRouter router ) { 
+		this.router = router;
+	}
+	
+	public HostRouter getRouter() { 
+		return router;
+	}
+	
+	/**
+	 * Submit a duplicate of a request still running after the specified percentile of its service elapsed 
+	 * time to a second host, requires a {@link HostRouter} 
+	 * 
+	 * @param percentile a value between 1 and 99, zero to disable hedging 
+	 */
+	public void setHedgePercentile( int percentile ) { 
+		if( percentile < 0 || percentile > 99 ) { 
+			throw new ClientException("Hedge percentile must be a value between 1 and 99: %s", percentile);
+		}
+		this.hedgePercentile = percentile;
+	}
+	
+	public int getHedgePercentile() { 
+		return hedgePercentile;
+	}
+	
+	public String getHost() { 
+		return host;
+	}
+	
+	/**
+	 * Change the remote host to which connect, used to continue a request accepted by a different host 
+	 */
+	public void setHost( String host ) { 
+		this.host = host;
+	}
+	
+	public String getBundle() { 
+		return bundle;
+	}
+	
+	/**
+	 * Setter for polling max sleep time. The actual delay between two polls is adapted by the {@link PollPolicy} 
 	 * 
 	 * @param pollDelaySecs
 	 */
@@ -470,6 +1267,33 @@ public class TCoffeeClient {
 		return pollTimeoutSecs;
 	}
 	
+	/**
+	 * The max time for each high level operation i.e. {@link #run(String, List)}, {@link #runProgram(String, List)} 
+	 * and {@link #downloadFiles(String)}. The time left bounds the connect and read timeouts of all the HTTP 
+	 * requests issued by the operation, when it expires the operation fails with a {@link DeadlineExceededException}
+	 * 
+	 * @param timeoutSecs the max time in seconds, zero for no limit
+	 */
+	public void setTimeoutSecs( int timeoutSecs ) { 
+		this.timeoutSecs = Math.max(0, timeoutSecs);
+	}
+	
+	public int getTimeoutSecs() { 
+		return timeoutSecs;
+	}
+	
+	/**
+	 * Start the deadline of a new operation, when a timeout has been specified 
+	 */
+	void startDeadline() { 
+		deadline = timeoutSecs > 0 ? Deadline.in(timeoutSecs * 1000L) : null;
+		http.setDeadline(deadline);
+	}
+	
+	Deadline getDeadline() { 
+		return deadline;
+	}
+	
 	/**
 	 * Defines the path where save the files returned by the server
 	 * 
@@ -518,10 +1342,37 @@ public class TCoffeeClient {
 		this.includeInputDownload = fIncludeInputDownload;
 	}
 
+	/**
+	 * Download only the result items accepted by the specified filter. The items are selected by the 
+	 * attributes returned with the result, so the other files are never requested. The input files are 
+	 * downloaded only when {@link #setIncludeInpoutDownload(boolean)} is enabled as well 
+	 * 
+	 * @param filter the items filter, <code>null</code> to download all the items 
+	 */
+	public void setItemFilter( ItemFilter filter ) { 
+		this.itemFilter = filter;
+	}
+	
+	public ItemFilter getItemFilter() { 
+		return itemFilter;
+	}
+
 	public boolean getAsync() { 
 		return async;
 	}
 	
+	/**
+	 * Do not download the result files when the request completes, they are fetched on demand 
+	 * through {@link #getResultHandle()}. The result cache is not used in this mode 
+	 */
+	public void setLazyDownload( boolean value ) { 
+		this.lazy = value;
+	}
+	
+	public boolean getLazyDownload() { 
+		return lazy;
+	}
+	
 	public void setAsync( boolean value ) { 
 		this.async = value;
 	}
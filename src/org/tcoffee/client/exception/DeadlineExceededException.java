@@ -0,0 +1,19 @@
+package org.tcoffee.client.exception;
+
+/**
+ * Raised when an operation does not complete before its deadline 
+ *
+ */
+public class DeadlineExceededException extends WaitResultTimeout {
+
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException( String message, Object ... args ) {
+		super(message, args);
+	}
+	
+	public DeadlineExceededException( Throwable t, String message, Object... args ) { 
+		super(t, message, args);
+	}
+	
+}
@@ -6,6 +6,9 @@ public class HttpResponseException extends ClientException {
 
 	private static final long serialVersionUID = 1L;
 
+	/** The HTTP status code returned by the server, zero when the server did not return a response */
+	private int statusCode;
+	
 	
 	public HttpResponseException() { 
 		super("The server return with an unknown error");
@@ -21,6 +24,21 @@ public class HttpResponseException extends ClientException {
 	
 	public HttpResponseException( StatusLine status ) { 
 		super( "The server return an error: %s - %s", status.getStatusCode(), status.getReasonPhrase() ); 
+		this.statusCode = status.getStatusCode();
+	}
+	
+	public HttpResponseException( int statusCode, String message, Object ... args ) { 
+		super(message, args);
+		this.statusCode = statusCode;
+	}
+	
+	public HttpResponseException( int statusCode, Throwable e, String message, Object... args ) { 
+		super(e, message, args);
+		this.statusCode = statusCode;
+	}
+	
+	public int getStatusCode() { 
+		return statusCode;
 	}
 	
 }
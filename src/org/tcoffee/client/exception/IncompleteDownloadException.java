@@ -0,0 +1,20 @@
+package org.tcoffee.client.exception;
+
+/**
+ * This exception is raised when a download is interrupted before receiving the whole content,
+ * the partial file is kept so that the download can be resumed
+ *
+ */
+public class IncompleteDownloadException extends ClientException {
+
+	private static final long serialVersionUID = 1L;
+
+	public IncompleteDownloadException( String message, Object ... args ) {
+		super(message, args);
+	}
+
+	public IncompleteDownloadException( Throwable t, String message, Object... args ) {
+		super(t, message, args);
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.tcoffee.client.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers used to copy the downloaded content to the file channels. 
+ * <p>
+ * Direct buffers are expensive to allocate and are released only by the garbage collector, 
+ * so the ones returned to the pool are reused by the following copies. 
+ * 
+ */
+public class BufferPool {
+
+	/** The size of the pooled buffers */
+	public static final int BUFFER_SIZE = 64 * 1024;
+	
+	/** The max number of idle buffers kept by the pool */
+	static final int MAX_IDLE = 16;
+	
+	private static final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<ByteBuffer>();
+	
+	private static final AtomicInteger count = new AtomicInteger();
+	
+	/**
+	 * @return a cleared buffer of {@link #BUFFER_SIZE} bytes, it has to be returned by {@link #release(ByteBuffer)}
+	 */
+	public static ByteBuffer acquire() { 
+		ByteBuffer result = idle.poll();
+		if( result == null ) { 
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		
+		count.decrementAndGet();
+		result.clear();
+		return result;
+	}
+	
+	/**
+	 * Return a buffer to the pool, the buffer is discarded when the pool is full 
+	 */
+	public static void release( ByteBuffer buffer ) { 
+		if( buffer == null || !buffer.isDirect() || buffer.capacity() != BUFFER_SIZE ) { 
+			return;
+		}
+		
+		if( count.incrementAndGet() <= MAX_IDLE ) { 
+			idle.offer(buffer);
+		}
+		else { 
+			count.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * @return the number of idle buffers 
+	 */
+	public static int getIdleCount() { 
+		return count.get();
+	}
+	
+}
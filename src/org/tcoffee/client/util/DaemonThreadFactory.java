@@ -0,0 +1,29 @@
+package org.tcoffee.client.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Create named daemon threads, so that the client background workers never prevent the JVM to exit 
+ * 
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final String prefix;
+	
+	private final AtomicInteger count = new AtomicInteger();
+	
+	/**
+	 * @param prefix the name prefix of the created threads 
+	 */
+	public DaemonThreadFactory( String prefix ) { 
+		this.prefix = prefix;
+	}
+	
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.tcoffee.client.util;
+
+import org.tcoffee.client.exception.DeadlineExceededException;
+
+/**
+ * The point in time by which an operation has to complete. The remaining time bounds the
+ * timeouts of the HTTP requests issued on behalf of the operation.
+ *
+ */
+public class Deadline {
+
+	private final long expires;
+
+	private final long duration;
+
+	private Deadline( long durationMillis ) {
+		this.duration = durationMillis;
+		this.expires = System.currentTimeMillis() + durationMillis;
+	}
+
+	/**
+	 * @param millis the time available to complete the operation
+	 * @return a deadline expiring after the specified time from now
+	 */
+	public static Deadline in( long millis ) {
+		return new Deadline(millis);
+	}
+
+	/**
+	 * @return the time left before the deadline expires (millis), zero when it has expired
+	 */
+	public long remaining() {
+		return Math.max(0, expires - System.currentTimeMillis());
+	}
+
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= expires;
+	}
+
+	/**
+	 * Bound a timeout to the remaining time
+	 *
+	 * @param millis the timeout to apply without a deadline
+	 * @return the smaller between the specified timeout and the remaining time, at least 1 millisecond
+	 */
+	public int bound( int millis ) {
+		return (int) Math.max(1, Math.min(millis, remaining()));
+	}
+
+	/**
+	 * @throws DeadlineExceededException when the deadline has expired
+	 */
+	public void check( String operation ) {
+		if( isExpired() ) {
+			throw new DeadlineExceededException("Operation not completed in the expected time (%s sec): %s", duration / 1000, operation);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Deadline [remaining=%s ms]", remaining());
+	}
+
+}
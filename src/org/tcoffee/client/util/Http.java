@@ -1,38 +1,421 @@
 package org.tcoffee.client.util;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.data.ResponseData;
 import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.exception.DeadlineExceededException;
 import org.tcoffee.client.exception.HttpResponseException;
+import org.tcoffee.client.exception.IncompleteDownloadException;
 import org.tcoffee.client.exception.XmlResponseException;
 
 
 /**
  * Wrap the HttpClient providing handy methods
+ * <p>
+ * All the instances share the same thread safe pool of keep-alive connections, 
+ * so a connection opened by a request is reused by the following ones to the same host. 
+ * <p>
+ * The requests accept gzip compressed responses, which are decompressed while they are read. 
+ * When enabled by {@link #setGzipUploads(boolean)} the posted content is gzip compressed as well, 
+ * unless the server declined it before with a <code>415</code> status. 
  * 
  * @author Paolo Di Tommaso
  *
  */
 public class Http {
 
-	private HttpClient client;
+	private static Logger log = LoggerFactory.getLogger(Http.class);
+
+	private static int maxTotalConnections = 40;
+	
+	private static int maxConnectionsPerRoute = 20;
+	
+	private static int idleTimeoutSecs = 30;
+	
+	private static Retry defaultRetry = new Retry();
+	
+	private static int connectTimeoutMillis = 30 * 1000;
+	
+	private static int readTimeoutMillis = 2 * 60 * 1000;
+	
+	/* abort the requests still running when their deadline expires */
+	private static ScheduledExecutorService watchdog;
+	
+	private static final ThreadLocal<ScheduledFuture<?>> watch = new ThreadLocal<ScheduledFuture<?>>();
+	
+	private static boolean gzipUploads;
+	
+	/* the hosts that do not accept compressed uploads */
+	private static final Set<String> plainUploadHosts = Collections.synchronizedSet(new HashSet<String>());
+	
+	public static final String PART_SUFFIX = ".part";
+	
+	private static ThreadSafeClientConnManager manager;
+	
+	private static DefaultHttpClient shared;
+	
+	private static ScheduledExecutorService evictor;
+	
+	
+	private Retry retry = defaultRetry;
+	
+	private Deadline deadline;
+	
+	private Progress uploadProgress;
+	
+	/**
+	 * Notified while the posted content is sent 
+	 */
+	public interface Progress { 
+		
+		/**
+		 * @param sent the number of bytes sent so far 
+		 * @param total the content length, or <code>-1</code> when unknown
+		 */
+		void update( long sent, long total );
+	}
 	
 	public Http() { 
-		client = new DefaultHttpClient();
+	}
+	
+	/**
+	 * @return the {@link HttpClient} instance shared by all the clients, it is created on the first request 
+	 */
+	static synchronized HttpClient sharedClient() { 
+		if( shared != null ) { 
+			return shared;
+		}
+		
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		ConnManagerParams.setMaxTotalConnections(params, maxTotalConnections);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+		
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register( new Scheme("http", PlainSocketFactory.getSocketFactory(), 80) );
+		registry.register( new Scheme("https", new LazySSLSocketFactory(), 443) );
+		
+		manager = new ThreadSafeClientConnManager(params, registry);
+		shared = new DefaultHttpClient(manager, params);
+		
+		/* 
+		 * keep the connection alive for the idle time when the server does not specify a timeout 
+		 */
+		shared.setKeepAliveStrategy( new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration > 0 ? duration : idleTimeoutSecs * 1000L;
+			}} );
+		
+		/*
+		 * negotiate compressed responses, except for the range requests whose offsets refer to the 
+		 * uncompressed content saved by the previous attempts 
+		 */
+		shared.addRequestInterceptor( new HttpRequestInterceptor() {
+			public void process(HttpRequest request, HttpContext context) {
+				if( !request.containsHeader("Accept-Encoding") && !request.containsHeader("Range") ) { 
+					request.addHeader("Accept-Encoding", "gzip");
+				}
+			}} );
+		
+		/*
+		 * close the connections expired or not used for the idle time
+		 */
+		final ThreadSafeClientConnManager pool = manager;
+		evictor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("http-evictor"));
+		evictor.scheduleWithFixedDelay( new Runnable() {
+			public void run() {
+				pool.closeExpiredConnections();
+				pool.closeIdleConnections(idleTimeoutSecs, TimeUnit.SECONDS);
+			}}, idleTimeoutSecs, idleTimeoutSecs, TimeUnit.SECONDS );
+		
+		return shared;
+	}
+	
+	/*
+	 * the SSL context initialization is expensive, it is postponed until the first https connection 
+	 */
+	static class LazySSLSocketFactory implements LayeredSocketFactory { 
+		
+		private SSLSocketFactory target;
+		
+		synchronized SSLSocketFactory target() { 
+			if( target == null ) { 
+				target = SSLSocketFactory.getSocketFactory();
+			}
+			return target;
+		}
+
+		public Socket createSocket() throws IOException {
+			return target().createSocket();
+		}
+
+		public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params) throws IOException {
+			return target().connectSocket(sock, host, port, localAddress, localPort, params);
+		}
+
+		public boolean isSecure(Socket sock) {
+			return target().isSecure(sock);
+		}
+
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			return target().createSocket(socket, host, port, autoClose);
+		}
+	}
+	
+	/*
+	 * the response content stream, decompressed while it is read when the server compressed it. The entity 
+	 * is not replaced by a decompressing one since its length is used to decide whether the connection is reusable 
+	 */
+	static InputStream content( HttpResponse response ) throws IOException { 
+		InputStream in = response.getEntity().getContent();
+		if( !isGzip(response) ) { 
+			return in;
+		}
+		
+		try { 
+			return new GZIPInputStream(in, 8192);
+		}
+		catch( IOException e ) { 
+			in.close();
+			throw e;
+		}
+	}
+	
+	static boolean isGzip( HttpResponse response ) { 
+		Header encoding = response.getEntity() != null ? response.getEntity().getContentEncoding() : null;
+		return encoding != null && "gzip".equalsIgnoreCase(encoding.getValue().trim());
+	}
+	
+	/*
+	 * compress the request content while it is sent, the length is not known so it is sent chunked 
+	 */
+	static class GzipCompressingEntity extends HttpEntityWrapper { 
+		
+		GzipCompressingEntity( HttpEntity entity ) { 
+			super(entity);
+		}
+
+		@Override
+		public Header getContentEncoding() {
+			return new BasicHeader("Content-Encoding", "gzip");
+		}
+		
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+		
+		@Override
+		public boolean isChunked() {
+			return true;
+		}
+		
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+			wrappedEntity.writeTo(gzip);
+			gzip.finish();
+		}
+	}
+	
+	/*
+	 * report the bytes written while the content is sent, before any compression 
+	 */
+	static class ProgressEntity extends HttpEntityWrapper { 
+		
+		final Progress progress;
+		
+		ProgressEntity( HttpEntity entity, Progress progress ) { 
+			super(entity);
+			this.progress = progress;
+		}
+		
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			final long total = getContentLength();
+			wrappedEntity.writeTo( new FilterOutputStream(out) {
+				long sent;
+				
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					sent += len;
+					progress.update(sent, total);
+				}
+				
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					progress.update(++sent, total);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Compress the posted content, for servers able to decode a <code>Content-Encoding: gzip</code> request. 
+	 * A server replying with status <code>415</code> receives the content uncompressed afterwards 
+	 */
+	public static synchronized void setGzipUploads( boolean value ) { 
+		if( gzipUploads == value ) { 
+			return;
+		}
+		gzipUploads = value;
+		plainUploadHosts.clear();
+	}
+	
+	public static boolean isGzipUploads() { 
+		return gzipUploads;
+	}
+	
+	/**
+	 * Close all the pooled connections. The pool is created again by the next request 
+	 */
+	public static synchronized void shutdown() { 
+		if( shared == null ) { 
+			return;
+		}
+		
+		evictor.shutdownNow();
+		manager.shutdown();
+		evictor = null;
+		manager = null;
+		shared = null;
+	}
+	
+	/**
+	 * Define the connection pool limits. The current pool is closed when they change, so it has to be invoked 
+	 * before issuing any request 
+	 * 
+	 * @param maxTotal the max number of open connections 
+	 * @param maxPerRoute the max number of open connections to the same host 
+	 */
+	public static synchronized void setConnectionLimits( int maxTotal, int maxPerRoute ) { 
+		if( maxTotal < 1 || maxPerRoute < 1 ) { 
+			throw new ClientException("Invalid connection limits: %s - %s", maxTotal, maxPerRoute);
+		}
+		
+		if( maxTotal == maxTotalConnections && maxPerRoute == maxConnectionsPerRoute ) { 
+			return;
+		}
+		shutdown();
+		maxTotalConnections = maxTotal;
+		maxConnectionsPerRoute = maxPerRoute;
+	}
+	
+	/**
+	 * The time after which a connection not used is closed 
+	 */
+	public static synchronized void setIdleTimeoutSecs( int secs ) { 
+		if( Math.max(1, secs) == idleTimeoutSecs ) { 
+			return;
+		}
+		shutdown();
+		idleTimeoutSecs = Math.max(1, secs);
+	}
+	
+	/**
+	 * The connect and read timeouts applied to all the requests, further bounded by the time left to the 
+	 * instance deadline, see {@link #setDeadline(Deadline)} 
+	 * 
+	 * @param connectMillis max time to establish a connection or to obtain it from the pool 
+	 * @param readMillis max time waiting for data from an open connection 
+	 */
+	public static void setTimeouts( int connectMillis, int readMillis ) { 
+		connectTimeoutMillis = Math.max(1, connectMillis);
+		readTimeoutMillis = Math.max(1, readMillis);
+	}
+	
+	public static int getConnectTimeoutMillis() { 
+		return connectTimeoutMillis;
+	}
+	
+	public static int getReadTimeoutMillis() { 
+		return readTimeoutMillis;
+	}
+	
+	/**
+	 * The requests issued after the deadline has expired fail with a {@link DeadlineExceededException}, 
+	 * the ones running when it expires are aborted
+	 * 
+	 * @param deadline the deadline of the operation for which the requests are issued, <code>null</code> for none 
+	 */
+	public void setDeadline( Deadline deadline ) { 
+		this.deadline = deadline;
+	}
+	
+	public Deadline getDeadline() { 
+		return deadline;
+	}
+	
+	/**
+	 * @return the number of connections currently held by the pool (both leased and idle)
+	 */
+	public static synchronized int getConnectionsInPool() { 
+		return manager != null ? manager.getConnectionsInPool() : 0;
 	}
 
 
@@ -45,7 +428,7 @@ public class Http {
 	protected HttpResponse get( String uri ) { 
 		try { 
 			HttpGet get = new HttpGet(uri);
-			HttpResponse response = client.execute(get);
+			HttpResponse response = execute(get);
 			checkNotNull(response, uri);
 			return response;
 		}
@@ -63,7 +446,14 @@ public class Http {
 	 * @param uri the remote resource to which connect 
 	 * @return the returned response as an XML formatted string 
 	 */
-	public String getXml( String uri ) { 
+	public String getXml( final String uri ) { 
+		return call("GET", uri, true, new Retry.Action<String>() {
+			public String call() {
+				return getXml0(uri);
+			}} );
+	}
+	
+	private String getXml0( String uri ) { 
 		try { 
 			HttpResponse response = get(uri);
 			String xml = parseXML(response);
@@ -77,55 +467,487 @@ public class Http {
 		}
 	}
 	
+	/**
+	 * Connect to the specified URL and parse the XML response while it is received 
+	 * 
+	 * @param uri the remote resource to which connect 
+	 * @return the {@link ResponseData} instance returned by the server 
+	 */
+	public ResponseData getResponse( final String uri ) { 
+		return call("GET", uri, true, new Retry.Action<ResponseData>() {
+			public ResponseData call() {
+				return parseResponse(get(uri), uri);
+			}} );
+	}
+	
+	/**
+	 * Post the list of pair to the specified URI and parse the XML response while it is received 
+	 * 
+	 * @param uri the remote resource to which connect 
+	 * @param pairs the parameters to post 
+	 * @return the {@link ResponseData} instance returned by the server 
+	 */
+	public ResponseData postWithResponse( final String uri, final List<KeyValue> pairs ) { 
+		return call("POST", uri, false, new Retry.Action<ResponseData>() {
+			public ResponseData call() {
+				return parseResponse(post(uri, pairs), uri);
+			}} );
+	}
+	
+	/*
+	 * parse the response directly from the entity stream, the connection is released when the stream is closed. 
+	 * Error responses are parsed as well, because the server describes the error in the XML content 
+	 */
+	ResponseData parseResponse( HttpResponse response, String uri ) { 
+		InputStream in = null;
+		try { 
+			in = content(response);
+			Object result = XML.fromXML(in);
+			if( !(result instanceof ResponseData) ) { 
+				throw new XmlResponseException("Unexpected server response: %s [%s]", result != null ? result.getClass().getSimpleName() : null, uri);
+			}
+			return (ResponseData) result;
+		}
+		catch( ClientException e ) { 
+			throw e;
+		}
+		catch( Exception e ) { 
+			StatusLine status = response.getStatusLine();
+			if( status != null && status.getStatusCode() >= 400 ) { 
+				throw new HttpResponseException(status.getStatusCode(), e, "The server returned an error: %s - %s [%s]", status.getStatusCode(), status.getReasonPhrase(), uri);
+			}
+			throw new XmlResponseException(e, "Invalid XML server response [%s]", uri);
+		}
+		finally { 
+			try { 
+				if( in != null ) in.close();
+			}
+			catch( IOException e ) { 
+				log.debug("Error closing response stream [{}]", uri);
+			}
+		}
+	}
+	
 	/**
 	 * Connect to teh specified URI and save the returned content to the specified file 
+	 * <p>
+	 * The content is written to a file named as the target plus the <code>.part</code> suffix, which is renamed to the target 
+	 * when the download is complete. When the connection drops, the download is retried requesting only the missing 
+	 * bytes by a <code>Range</code> header. The same happens when a partial file is left by a previous execution. 
+	 * The attempts are governed by the {@link Retry} policy. 
+	 * 
+	 * @param uri the remote resource to which connect
+	 * @param target the file to which save the returned content 
+	 * @return the target file instance 
+	 */
+	public File getFile( final String uri, File target ) { 
+		return getFile(uri, target, (Echo) null);
+	}
+	
+	/**
+	 * Save the content to the specified file, copying it to the specified stream as well while it is received. 
+	 * Each byte is copied once, even when the download is resumed, see {@link #getFile(String, File)}
 	 * 
 	 * @param uri the remote resource to which connect
 	 * @param target the file to which save the returned content 
+	 * @param out the stream to which copy the content, <code>null</code> for none
 	 * @return the target file instance 
 	 */
-	public File getFile( String uri, File target ) { 
+	public File getFile( final String uri, File target, OutputStream out ) { 
+		return getFile(uri, target, out != null ? new Echo(out) : null);
+	}
+	
+	/**
+	 * Save the content to the specified file, copying to the echo stream only the bytes it did not receive yet, 
+	 * e.g. because already copied by {@link #tail(String, File, Echo)} 
+	 */
+	public File getFile( final String uri, File target, final Echo echo ) { 
+		final File part = new File(target.getPath() + PART_SUFFIX);
+		
 		try { 
-			HttpResponse response = get(uri);
+			call("GET", uri, true, new Retry.Action<Void>() {
+				public Void call() {
+					download(uri, part, echo);
+					return null;
+				}} );
+		}
+		catch( IncompleteDownloadException e ) { 
+			throw new ClientException(e, "Unable to download file resource [%s] to '%s'", uri, target);
+		}
+		
+		/* 
+		 * the download is complete, replace the target file 
+		 */
+		if( !part.renameTo(target) && !(target.delete() && part.renameTo(target)) ) { 
+			throw new ClientException("Unable to rename '%s' to '%s'", part, target);
+		}
+		return target;
+	}
+	
+	/**
+	 * Append to the partial file of the target the content added to the remote resource since the previous 
+	 * invocation, requesting just the missing bytes by a <code>Range</code> header. The partial file is 
+	 * completed afterwards by {@link #getFile(String, File, Echo)}
+	 * 
+	 * @param uri the remote resource growing while it is tailed, e.g. a log file 
+	 * @param target the file to which the content is finally saved 
+	 * @param echo the stream to which copy the new content, <code>null</code> for none
+	 * @return the number of new bytes received 
+	 */
+	public long tail( final String uri, File target, final Echo echo ) { 
+		final File part = new File(target.getPath() + PART_SUFFIX);
+		long before = part.exists() ? part.length() : 0;
+		
+		call("GET", uri, true, new Retry.Action<Void>() {
+			public Void call() {
+				download(uri, part, echo);
+				return null;
+			}} );
+		
+		return part.length() - before;
+	}
+	
+	/**
+	 * Copy the downloaded content to a stream, keeping track of the bytes already copied 
+	 */
+	public static class Echo { 
+		
+		final OutputStream out;
+		
+		final WritableByteChannel channel;
+		
+		/* the file position up to which the content has been copied */
+		long position;
+		
+		public Echo( OutputStream out ) { 
+			this.out = out;
+			this.channel = Channels.newChannel(out);
+		}
+		
+		/**
+		 * @return the number of bytes copied 
+		 */
+		public long getPosition() { 
+			return position;
+		}
+		
+		/*
+		 * a print stream does not report the write errors, e.g. a broken pipe 
+		 */
+		boolean isClosed() { 
+			return out instanceof PrintStream && ((PrintStream)out).checkError();
+		}
+		
+		/*
+		 * copy the bytes of the buffer between the specified index and its position, the first byte 
+		 * of the buffer being at the specified file position. Returns the buffer position 
+		 */
+		int write( ByteBuffer buffer, int from, long base ) throws IOException { 
+			int to = buffer.position();
+			long start = Math.max(base + from, position);
+			if( start < base + to ) { 
+				ByteBuffer view = buffer.duplicate();
+				view.limit(to);
+				view.position( (int)(start - base) );
+				while( view.hasRemaining() ) { 
+					channel.write(view);
+				}
+				out.flush();
+				position = base + to;
+			}
+			return to;
+		}
+		
+		/*
+		 * copy the bytes of the array between the specified indexes, the first byte of the array 
+		 * being at the specified file position 
+		 */
+		void write( byte[] data, int from, int to, long base ) throws IOException { 
+			long start = Math.max(base + from, position);
+			if( start < base + to ) { 
+				out.write(data, (int)(start - base), (int)(base + to - start));
+				out.flush();
+				position = base + to;
+			}
+		}
+		
+		/*
+		 * copy the content saved by the previous executions up to the specified length  
+		 */
+		void catchUp( File part, long length ) throws IOException { 
+			if( position >= length ) { 
+				return;
+			}
+			
+			FileInputStream in = new FileInputStream(part);
+			try { 
+				FileChannel source = in.getChannel();
+				source.position(position);
+				ByteBuffer buffer = BufferPool.acquire();
+				try { 
+					while( position < length && source.read(buffer) != -1 ) { 
+						buffer.flip();
+						buffer.limit( (int) Math.min(buffer.limit(), length - position) );
+						position += buffer.remaining();
+						while( buffer.hasRemaining() ) channel.write(buffer);
+						buffer.clear();
+					}
+				}
+				finally { 
+					BufferPool.release(buffer);
+				}
+				out.flush();
+			}
+			finally { 
+				in.close();
+			}
+		}
+	}
+	
+	void download( String uri, File part ) { 
+		download(uri, part, null);
+	}
+	
+	/**
+	 * Copy the content of the specified resource to a stream without saving it. When the connection drops 
+	 * the missing bytes are requested by a <code>Range</code> header, so that each byte is written once. 
+	 * 
+	 * @param uri the remote resource to which connect
+	 * @param out the stream to which write the content 
+	 */
+	public void getStream( final String uri, OutputStream out ) { 
+		final Echo echo = new Echo(out);
+		try { 
+			call("GET", uri, true, new Retry.Action<Void>() {
+				public Void call() {
+					stream(uri, echo);
+					return null;
+				}} );
+		}
+		catch( IncompleteDownloadException e ) { 
+			throw new ClientException(e, "Unable to read resource [%s] after %s bytes", uri, echo.position);
+		}
+	}
+	
+	void stream( String uri, Echo echo ) { 
+		long offset = echo.position;
+		HttpGet get = new HttpGet(uri);
+		if( offset > 0 ) { 
+			get.setHeader("Range", "bytes=" + offset + "-");
+		}
+		
+		try { 
+			HttpResponse response = execute(get);
+			checkNotNull(response, uri);
+			if( response.getStatusLine().getStatusCode() == 416 ) { 
+				release(response);
+				Header range = response.getFirstHeader("Content-Range");
+				if( range != null && range.getValue().endsWith("/" + offset) ) { 
+					return;
+				}
+				throw new ClientException("The resource has been changed while it was read [%s]", uri);
+			}
+			
 			checkValid(response, uri);
+			/* when the server does not support ranges, the bytes already written are skipped */
+			long base = response.getStatusLine().getStatusCode() == 206 ? offset : 0;
+			long expected = isGzip(response) ? -1 : response.getEntity().getContentLength();
+			long count = 0;
+			InputStream in = content(response);
+			/* a stream to stream copy, a plain array avoids the copies of the channel adapters */
+			byte[] buffer = new byte[8192];
+			int len;
+			try { 
+				while( (len=in.read(buffer)) != -1 ) { 
+					echo.write(buffer, 0, len, base + count);
+					count += len;
+					if( echo.isClosed() ) { 
+						/* e.g. the command reading the standard output terminated */
+						get.abort();
+						throw new ClientException("Output stream closed after %s bytes [%s]", echo.position, uri);
+					}
+				}
+			}
+			catch( IOException e ) { 
+				get.abort();
+				throw new IncompleteDownloadException(e, "Connection dropped after %s bytes", count);
+			}
 			
-			BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(target));
-			response.getEntity().writeTo(out);
+			if( expected >= 0 && count < expected ) { 
+				get.abort();
+				throw new IncompleteDownloadException("Received %s of %s bytes", count, expected);
+			}
+		}
+		catch( ClientException e ) { 
+			throw e;
+		}
+		catch( IOException e ) { 
+			get.abort();
+			throw new IncompleteDownloadException(e, "Connection error");
+		}
+	}
+	
+	/* 
+	 * download the resource content appending it to the partial file 
+	 */
+	void download( String uri, File part, Echo echo ) { 
+		long offset = part.exists() ? part.length() : 0;
+		HttpGet get = new HttpGet(uri);
+		if( offset > 0 ) { 
+			get.setHeader("Range", "bytes=" + offset + "-");
+		}
+		
+		try { 
+			HttpResponse response = execute(get);
+			checkNotNull(response, uri);
+			int code = response.getStatusLine().getStatusCode();
 			
-			out.close();
-			return target;
+			if( code == 416 ) { 
+				/* 
+				 * the range is not satisfiable: the partial file is already complete or it is not valid anymore
+				 */
+				release(response);
+				Header range = response.getFirstHeader("Content-Range");
+				if( range != null && range.getValue().endsWith("/" + offset) ) { 
+					if( echo != null ) echo.catchUp(part, offset);
+					return;
+				}
+				part.delete();
+				throw new IncompleteDownloadException("Partial file discarded: %s", part);
+			}
+			
+			checkValid(response, uri);
+			if( code != 206 ) { 
+				/* the server does not support ranges, start from scratch */
+				offset = 0;
+			}
+			if( echo != null ) { 
+				echo.catchUp(part, offset);
+			}
 
+			/* the length of a compressed content is not the one of the saved file */
+			long expected = isGzip(response) ? -1 : response.getEntity().getContentLength();
+			long count = 0;
+			InputStream in = content(response);
+			ReadableByteChannel source = Channels.newChannel(in);
+			RandomAccessFile file = new RandomAccessFile(part, "rw");
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BufferPool.acquire();
+			try { 
+				/* 
+				 * the file length is always the count of the bytes actually received, since it is the offset of 
+				 * the next attempt, even when this process is killed: the space is never reserved in advance 
+				 */
+				channel.truncate(offset);
+				
+				/* fill the buffer before writing, so that the file is written by large blocks */
+				int echoed = 0;
+				while( source.read(buffer) != -1 ) { 
+					if( echo != null ) { 
+						/* the bytes are copied as they arrive */
+						echoed = echo.write(buffer, echoed, offset + count);
+					}
+					if( !buffer.hasRemaining() ) { 
+						count += flush(buffer, channel, offset + count);
+						echoed = 0;
+					}
+				}
+				count += flush(buffer, channel, offset + count);
+			}
+			catch( IOException e ) { 
+				/* keep the content received before the error */
+				count += flush(buffer, channel, offset + count);
+				get.abort();
+				throw new IncompleteDownloadException(e, "Connection dropped after %s bytes", count);
+			}
+			finally { 
+				BufferPool.release(buffer);
+				file.close();
+			}
+			
+			if( expected >= 0 && count < expected ) { 
+				get.abort();
+				throw new IncompleteDownloadException("Received %s of %s bytes", count, expected);
+			}
+			in.close();
 		}
 		catch( ClientException e ) { 
 			throw e;
 		}
-		catch( Exception e ) { 
-			throw new ClientException(e, "Unable to download file resource [%s] to '%s'", uri, target);
+		catch( IOException e ) { 
+			get.abort();
+			throw new IncompleteDownloadException(e, "Connection error");
+		}
+	}
+	
+	/*
+	 * write the buffer content to the file at the specified position 
+	 */
+	static int flush( ByteBuffer buffer, FileChannel channel, long position ) throws IOException { 
+		buffer.flip();
+		int result = 0;
+		while( buffer.hasRemaining() ) { 
+			result += channel.write(buffer, position + result);
 		}
+		buffer.clear();
+		return result;
+	}
+	
+	/**
+	 * The listener notified while the content of the post requests is uploaded, <code>null</code> for none
+	 */
+	public void setUploadProgress( Progress progress ) { 
+		this.uploadProgress = progress;
+	}
+	
+	public Progress getUploadProgress() { 
+		return uploadProgress;
+	}
+	
+	/**
+	 * The policy used to retry the failed requests by the instances created afterwards 
+	 */
+	public static void setDefaultRetry( Retry value ) { 
+		defaultRetry = value != null ? value : new Retry();
+	}
+	
+	public static Retry getDefaultRetry() { 
+		return defaultRetry;
+	}
+	
+	/**
+	 * The policy used to retry the failed requests of this instance, see {@link Retry#NONE} to disable it 
+	 */
+	public void setRetry( Retry value ) { 
+		this.retry = value != null ? value : defaultRetry;
+	}
+	
+	public Retry getRetry() { 
+		return retry;
 	}
 
 	
 	protected HttpResponse post( String uri, List<KeyValue> pairs ) { 
 		try { 
 			HttpPost post = new HttpPost(uri);
-
-			/* add all parameters */
-			MultipartEntity entity = new MultipartEntity();
-			if( pairs != null ) for( KeyValue entry : pairs ) { 
-				ContentBody part;
-				if( entry.isFile() ) { 
-					part = new FileBody( (File)entry.value );
-				}
-				else { 
-					part = new StringBody(entry.getValueAsString());
-				}
-				entity.addPart(entry.key, part);
-				
+			String host = post.getURI().getAuthority();
+			boolean gzip = gzipUploads && !plainUploadHosts.contains(host);
+			HttpEntity entity = multipart(pairs);
+			if( uploadProgress != null ) { 
+				entity = new ProgressEntity(entity, uploadProgress);
 			}
-			post.setEntity(entity);
+			post.setEntity( gzip ? new GzipCompressingEntity(entity) : entity );
 			/* submit the requets */
-			HttpResponse response = client.execute(post);
+			HttpResponse response = execute(post);
 			checkNotNull(response, uri);
+			
+			if( gzip && response.getStatusLine().getStatusCode() == 415 ) { 
+				/* the server does not decode compressed requests, send them as they are */
+				log.debug("Compressed uploads not supported by host: {}", host);
+				release(response);
+				plainUploadHosts.add(host);
+				return post(uri, pairs);
+			}
 			return response;
 		}
 		catch( ClientException e ) { 
@@ -136,6 +958,99 @@ public class Http {
 		}
 	}
 	
+	/*
+	 * execute the request applying the timeouts, when the instance has a deadline the request is aborted 
+	 * on its expiration 
+	 */
+	HttpResponse execute( final HttpRequestBase request ) throws IOException { 
+		int connect = connectTimeoutMillis;
+		int read = readTimeoutMillis;
+		if( deadline != null ) { 
+			deadline.check(request.getURI().toString());
+			connect = deadline.bound(connect);
+			read = deadline.bound(read);
+			
+			unwatch();
+			watch.set( watchdog().schedule( new Runnable() {
+				public void run() {
+					log.debug("Deadline expired, aborting request [{}]", request.getURI());
+					request.abort();
+				}}, deadline.remaining(), TimeUnit.MILLISECONDS) );
+		}
+		
+		HttpParams params = request.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, connect);
+		HttpConnectionParams.setSoTimeout(params, read);
+		ConnManagerParams.setTimeout(params, connect);
+		return sharedClient().execute(request);
+	}
+	
+	static synchronized ScheduledExecutorService watchdog() { 
+		if( watchdog == null ) { 
+			watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("http-deadline"));
+		}
+		return watchdog;
+	}
+	
+	/*
+	 * cancel the abort scheduled for the last request of the current thread 
+	 */
+	static void unwatch() { 
+		ScheduledFuture<?> current = watch.get();
+		if( current != null ) { 
+			current.cancel(false);
+			watch.remove();
+		}
+	}
+	
+	/*
+	 * execute the action by the retry policy, a failure caused by the deadline expiration 
+	 * is reported as {@link DeadlineExceededException} 
+	 */
+	<T> T call( final String method, final String uri, boolean idempotent, final Retry.Action<T> action ) { 
+		return retry.execute(method, uri, idempotent, deadline, new Retry.Action<T>() {
+			public T call() {
+				try { 
+					if( deadline != null ) deadline.check(uri);
+					return action.call();
+				}
+				catch( DeadlineExceededException e ) { 
+					throw e;
+				}
+				catch( RuntimeException e ) { 
+					if( deadline != null && deadline.isExpired() ) { 
+						throw new DeadlineExceededException(e, "Operation not completed in the expected time: %s %s", method, uri);
+					}
+					throw e;
+				}
+				finally { 
+					unwatch();
+				}
+			}} );
+	}
+	
+	/**
+	 * Create the multipart entity containing all the specified parameters. 
+	 * Parameters having a {@link File} value are uploaded as file parts. 
+	 * 
+	 * @param pairs the parameters to post 
+	 * @return the {@link MultipartEntity} instance 
+	 */
+	public static MultipartEntity multipart( List<KeyValue> pairs ) throws UnsupportedEncodingException { 
+		MultipartEntity entity = new MultipartEntity();
+		if( pairs != null ) for( KeyValue entry : pairs ) { 
+			ContentBody part;
+			if( entry.isFile() ) { 
+				part = new FileBody( (File)entry.value );
+			}
+			else { 
+				part = new StringBody(entry.getValueAsString());
+			}
+			entity.addPart(entry.key, part);
+		}
+		return entity;
+	}
+	
 	private void checkNotNull(HttpResponse response, String uri) {
 		StatusLine status = response != null ? response.getStatusLine() : null;
 		
@@ -159,7 +1074,8 @@ public class Http {
 			throw new HttpResponseException();
 		}
 		else if( status != null && status.getStatusCode() >= 400 ) { 
-			throw new HttpResponseException("The server returned an error: %s - %s [%s]", 
+			release(response);
+			throw new HttpResponseException(status.getStatusCode(), "The server returned an error: %s - %s [%s]", 
 					status.getStatusCode(),
 					status.getReasonPhrase(),
 					uri);
@@ -176,7 +1092,14 @@ public class Http {
 	 * @param pairs
 	 * @return
 	 */
-	public String postWithXmlResponse( String uri,  List<KeyValue> pairs  ) { 
+	public String postWithXmlResponse( final String uri, final List<KeyValue> pairs  ) { 
+		return call("POST", uri, false, new Retry.Action<String>() {
+			public String call() {
+				return postWithXmlResponse0(uri, pairs);
+			}} );
+	}
+	
+	private String postWithXmlResponse0( String uri,  List<KeyValue> pairs  ) { 
 		try {
 			HttpResponse response = post(uri, pairs);
 			String xml = parseXML(response);
@@ -190,8 +1113,20 @@ public class Http {
 		}
 	}
 	
+	/*
+	 * consume the response content so that the connection is returned to the pool 
+	 */
+	static void release( HttpResponse response ) { 
+		try {
+			EntityUtils.consume(response.getEntity());
+		} 
+		catch (IOException e) {
+			Sys.debug(e);
+		}
+	}
+	
 	String parseXML( HttpResponse response ) throws IllegalStateException, IOException { 
-		String result = IO.readContentAsString(response.getEntity().getContent());
+		String result = IO.readContentAsString(content(response));
 		
 		if( result==null || !result.startsWith("")) { 
 			throw new XmlResponseException("Response does not seem to be in XML format (it must begins with the '<?xml version=\"1.0\" encoding=\"UTF-8\"?>' declaration): \n%s", result);
@@ -0,0 +1,84 @@
+package org.tcoffee.client.util;
+
+import java.util.Enumeration;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Configure the command line client logging programmatically.
+ * <p>
+ * The log4j default initialization parses the <code>log4j.properties</code> file by the java beans
+ * introspection, which is a large part of the client startup time. The same configuration is applied here
+ * directly, unless a custom one is provided by the <code>log4j.configuration</code> system property.
+ *
+ */
+public class Logging {
+
+	static final String PATTERN = "%-4r [%t] %-5p %c %x - %m%n";
+
+	private static boolean configured;
+
+	private static boolean perThread;
+
+	/*
+	 * drop the messages below INFO logged by a thread not in debug mode, see Sys#isDebug()
+	 */
+	static class DebugFilter extends Filter {
+
+		@Override
+		public int decide( LoggingEvent event ) {
+			return event.getLevel().isGreaterOrEqual(Level.INFO) || Sys.isDebug() ? NEUTRAL : DENY;
+		}
+	}
+
+	/**
+	 * Configure the root logger, it has to be invoked before any logger is created
+	 */
+	public static synchronized void configure() {
+		if( configured || System.getProperty("log4j.configuration") != null ) {
+			return;
+		}
+
+		System.setProperty("log4j.defaultInitOverride", "true");
+		Logger root = Logger.getRootLogger();
+		root.setLevel(Level.INFO);
+		root.addAppender( new ConsoleAppender(new PatternLayout(PATTERN)) );
+		configured = true;
+	}
+
+	/**
+	 * Print the debug messages, or just the INFO ones and above. Once {@link #perThread()} has been invoked
+	 * the level follows the debug setting of the thread logging the message, and the root level is left unchanged
+	 */
+	public static synchronized void setDebug( boolean value ) {
+		if( !perThread ) {
+			Logger.getRootLogger().setLevel( value ? Level.DEBUG : Level.INFO );
+		}
+	}
+
+	/**
+	 * Let each thread have its own log level, as required by the agent executing more commands concurrently:
+	 * the debug messages are printed only for the threads whose {@link Sys#isDebug()} is true
+	 */
+	@SuppressWarnings("rawtypes")
+	public static synchronized void perThread() {
+		if( perThread ) {
+			return;
+		}
+
+		Logger root = Logger.getRootLogger();
+		Enumeration appenders = root.getAllAppenders();
+		while( appenders.hasMoreElements() ) {
+			((Appender) appenders.nextElement()).addFilter( new DebugFilter() );
+		}
+		root.setLevel(Level.DEBUG);
+		perThread = true;
+	}
+
+}
@@ -0,0 +1,202 @@
+package org.tcoffee.client.util;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.data.ErrorData;
+import org.tcoffee.client.data.ResponseData;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.ResultItemData;
+import org.tcoffee.client.data.ServiceData;
+import org.tcoffee.client.data.SubmitData;
+
+/**
+ * Decode the server <code>&lt;response&gt;</code> document filling the {@link ResponseData} objects
+ * directly while the document is pull parsed, without any reflection.
+ * <p>
+ * Unknown elements in the response are skipped, documents having a different root element are
+ * handed to the generic XStream mapping defined by {@link XML}.
+ *
+ */
+public class ResponseDecoder {
+
+	private static Logger log = LoggerFactory.getLogger(ResponseDecoder.class);
+
+	private static final XMLInputFactory factory;
+
+	static {
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	public static Object decode( InputStream in ) throws XMLStreamException {
+		return decode( factory.createXMLStreamReader(in) );
+	}
+
+	public static Object decode( Reader in ) throws XMLStreamException {
+		return decode( factory.createXMLStreamReader(in) );
+	}
+
+	static Object decode( XMLStreamReader reader ) throws XMLStreamException {
+		reader.nextTag();
+		if( !"response".equals(reader.getLocalName()) ) {
+			log.debug("Decoding <{}> with XStream", reader.getLocalName());
+			return XML.unmarshal( new ReplayReader(reader) );
+		}
+
+		return response(reader);
+	}
+
+	static ResponseData response( XMLStreamReader reader ) throws XMLStreamException {
+		ResponseData result = new ResponseData();
+		while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String name = reader.getLocalName();
+			if( "status".equals(name) ) {
+				result.status = reader.getElementText();
+			}
+			else if( "submit".equals(name) ) {
+				result.submit = submit(reader);
+			}
+			else if( "result".equals(name) ) {
+				result.result = result(reader);
+			}
+			else if( "service".equals(name) ) {
+				if( result.services == null ) result.services = new ArrayList<ServiceData>();
+				result.services.add( service(reader) );
+			}
+			else if( "err".equals(name) ) {
+				result.err = error(reader);
+			}
+			else {
+				skip(reader);
+			}
+		}
+		return result;
+	}
+
+	static SubmitData submit( XMLStreamReader reader ) throws XMLStreamException {
+		SubmitData result = new SubmitData();
+		while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String name = reader.getLocalName();
+			if( "request-id".equals(name) ) result.requestId = reader.getElementText();
+			else if( "status".equals(name) ) result.status = reader.getElementText();
+			else if( "url".equals(name) ) result.url = reader.getElementText();
+			else skip(reader);
+		}
+		return result;
+	}
+
+	static ResultData result( XMLStreamReader reader ) throws XMLStreamException {
+		ResultData result = new ResultData();
+		while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String name = reader.getLocalName();
+			if( "item".equals(name) ) {
+				if( result.items == null ) result.items = new ArrayList<ResultItemData>();
+				result.items.add( item(reader) );
+			}
+			else if( "bundle".equals(name) ) result.bundle = reader.getElementText();
+			else if( "service".equals(name) ) result.service = reader.getElementText();
+			else if( "title".equals(name) ) result.title = reader.getElementText();
+			else if( "status".equals(name) ) result.status = reader.getElementText();
+			else if( "cmdline".equals(name) ) result.cmdline = reader.getElementText();
+			else if( "elapsed-time".equals(name) ) result.elapsedTime = number(reader);
+			else skip(reader);
+		}
+		return result;
+	}
+
+	static ResultItemData item( XMLStreamReader reader ) throws XMLStreamException {
+		ResultItemData result = new ResultItemData();
+		while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String name = reader.getLocalName();
+			if( "webpath".equals(name) ) result.webpath = reader.getElementText();
+			else if( "label".equals(name) ) result.label = reader.getElementText();
+			else if( "type".equals(name) ) result.type = reader.getElementText();
+			else if( "name".equals(name) ) result.name = reader.getElementText();
+			else if( "format".equals(name) ) result.format = reader.getElementText();
+			else skip(reader);
+		}
+		return result;
+	}
+
+	static ServiceData service( XMLStreamReader reader ) throws XMLStreamException {
+		ServiceData result = new ServiceData();
+		while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String name = reader.getLocalName();
+			if( "name".equals(name) ) result.name = reader.getElementText();
+			else if( "group".equals(name) ) result.group = reader.getElementText();
+			else if( "title".equals(name) ) result.title = reader.getElementText();
+			else if( "description".equals(name) ) result.description = reader.getElementText();
+			else if( "cite".equals(name) ) result.cite = reader.getElementText();
+			else skip(reader);
+		}
+		return result;
+	}
+
+	static ErrorData error( XMLStreamReader reader ) throws XMLStreamException {
+		ErrorData result = new ErrorData();
+		while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String name = reader.getLocalName();
+			if( "code".equals(name) ) result.code = reader.getElementText();
+			else if( "message".equals(name) ) result.message = reader.getElementText();
+			else if( "type".equals(name) ) result.type = reader.getElementText();
+			else skip(reader);
+		}
+		return result;
+	}
+
+	private static long number( XMLStreamReader reader ) throws XMLStreamException {
+		String value = reader.getElementText().trim();
+		try {
+			return value.length() > 0 ? Long.parseLong(value) : 0;
+		}
+		catch( NumberFormatException e ) {
+			throw new XMLStreamException("Invalid number: " + value, reader.getLocation());
+		}
+	}
+
+	/*
+	 * skip the current element and all its content
+	 */
+	private static void skip( XMLStreamReader reader ) throws XMLStreamException {
+		log.debug("Skipping unknown element <{}>", reader.getLocalName());
+		int depth = 1;
+		while( depth > 0 ) {
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT ) depth++;
+			else if( event == XMLStreamConstants.END_ELEMENT ) depth--;
+		}
+	}
+
+	/*
+	 * return once more the current event, so that the document can be parsed from the element already consumed
+	 */
+	static class ReplayReader extends StreamReaderDelegate {
+		private boolean replay = true;
+
+		ReplayReader( XMLStreamReader reader ) {
+			super(reader);
+		}
+
+		@Override
+		public int next() throws XMLStreamException {
+			if( replay ) {
+				replay = false;
+				return getEventType();
+			}
+			return super.next();
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.tcoffee.client.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A {@link java.util.concurrent.Future} completed explicitly by the code producing the value, 
+ * instead of by running a task. 
+ * <p>
+ * Listeners added by {@link #addListener(Runnable)} are invoked when the future completes, 
+ * by the thread completing it (or immediately if it has already completed)
+ * 
+ */
+public class ResultFuture<T> extends FutureTask<T> {
+
+	private List<Runnable> listeners = new ArrayList<Runnable>();
+	
+	public ResultFuture() { 
+		super( new Callable<T>() {
+			public T call() throws Exception {
+				throw new IllegalStateException("ResultFuture cannot be run");
+			}} );
+	}
+	
+	/**
+	 * Complete the future with the specified value 
+	 */
+	@Override
+	public void set(T value) {
+		super.set(value);
+	}
+	
+	/**
+	 * Complete the future with the specified error 
+	 */
+	@Override
+	public void setException(Throwable error) {
+		super.setException(error);
+	}
+	
+	/**
+	 * Register a listener invoked when this future completes 
+	 */
+	public ResultFuture<T> addListener( Runnable listener ) { 
+		synchronized (this) {
+			if( listeners != null ) { 
+				listeners.add(listener);
+				return this;
+			}
+		}
+		
+		listener.run();
+		return this;
+	}
+	
+	@Override
+	protected void done() {
+		List<Runnable> copy;
+		synchronized (this) {
+			copy = listeners;
+			listeners = null;
+		}
+		
+		for( Runnable listener : copy ) { 
+			listener.run();
+		}
+	}
+	
+}
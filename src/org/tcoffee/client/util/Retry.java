@@ -0,0 +1,240 @@
+package org.tcoffee.client.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.exception.HttpResponseException;
+import org.tcoffee.client.exception.IncompleteDownloadException;
+import org.tcoffee.client.exception.WaitResultTimeout;
+
+/**
+ * Execute the HTTP requests retrying the ones failed by a transient condition, waiting
+ * an exponentially growing delay between the attempts.
+ * <p>
+ * The failures are classified as follow:
+ * <ul>
+ * <li>connection refused, connection timeout and pool timeout: the request has not been sent, it is always retried</li>
+ * <li>status 429 and 503: the server declined to process the request, it is always retried</li>
+ * <li>status 408, 500, 502, 504, dropped connections, read timeouts and incomplete downloads: the request
+ * could have been processed, it is retried only when idempotent</li>
+ * <li>any other status, unknown hosts, SSL and protocol errors, expired deadlines and the errors reported
+ * by the server in the response document: fatal</li>
+ * </ul>
+ *
+ */
+public class Retry {
+
+	private static Logger log = LoggerFactory.getLogger(Retry.class);
+
+	/**
+	 * The operation to execute
+	 */
+	public interface Action<T> {
+		T call();
+	}
+
+	/** Execute the requests just once */
+	public static final Retry NONE = new Retry(1, 0, 0);
+
+	/* metrics shared by all the instances */
+	private static final AtomicLong retries = new AtomicLong();
+
+	private static final AtomicLong failures = new AtomicLong();
+
+	private static final AtomicLong delayMillis = new AtomicLong();
+
+	private final Random random = new Random();
+
+	private int maxAttempts = 6;
+
+	private long baseDelayMillis = 500;
+
+	private long maxDelayMillis = 30000;
+
+	public Retry() {
+	}
+
+	public Retry( int maxAttempts, long baseDelayMillis, long maxDelayMillis ) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.baseDelayMillis = Math.max(0, baseDelayMillis);
+		this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+	}
+
+	/**
+	 * Execute the action retrying it on transient failures
+	 *
+	 * @param method the HTTP method, used to report the retries
+	 * @param uri the requested resource, used to report the retries
+	 * @param idempotent <code>true</code> when the request can be repeated even if it could have been processed by the server
+	 * @param action the request to execute
+	 * @return the action result
+	 */
+	public <T> T execute( String method, String uri, boolean idempotent, Action<T> action ) {
+		return execute(method, uri, idempotent, null, action);
+	}
+
+	/**
+	 * Execute the action retrying it on transient failures, the action is not retried when the
+	 * delay before the next attempt would exceed the specified deadline
+	 */
+	public <T> T execute( String method, String uri, boolean idempotent, Deadline deadline, Action<T> action ) {
+		for( int attempt=1; ; attempt++ ) {
+			try {
+				return action.call();
+			}
+			catch( RuntimeException e ) {
+				long delay = delay(attempt);
+				boolean late = deadline != null && delay >= deadline.remaining();
+				if( attempt >= maxAttempts || late || !isRetryable(e, idempotent) ) {
+					if( attempt > 1 ) {
+						failures.incrementAndGet();
+						Sys.debug("%s %s failed after %s attempts: %s", method, uri, attempt, e.getMessage());
+					}
+					throw e;
+				}
+
+				retries.incrementAndGet();
+				delayMillis.addAndGet(delay);
+				Sys.debug("Retrying %s %s in %s ms (attempt %s of %s): %s", method, uri, delay, attempt+1, maxAttempts, e.getMessage());
+				log.debug("Retrying {} {}: {}", new Object[] { method, uri, e.getMessage() });
+				sleep(delay);
+			}
+		}
+	}
+
+	/**
+	 * The delay before the next attempt: the base delay doubled on each attempt, up to the max delay,
+	 * randomized by 20% so that clients failing together do not retry at the same time
+	 */
+	public long delay( int attempt ) {
+		long delay = baseDelayMillis << Math.min(attempt-1, 20);
+		delay = Math.min(delay, maxDelayMillis);
+		return delay + (long) (delay * 0.2 * (2 * random.nextDouble() - 1));
+	}
+
+	void sleep( long millis ) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new ClientException(e, "Request retry interrupted");
+		}
+	}
+
+	/**
+	 * Classify a request failure
+	 *
+	 * @param e the exception raised by the request
+	 * @param idempotent whenever the request can be repeated safely
+	 * @return <code>true</code> if the request can be tried again
+	 */
+	public static boolean isRetryable( Throwable e, boolean idempotent ) {
+		if( e instanceof WaitResultTimeout ) {
+			return false;
+		}
+
+		if( e instanceof IncompleteDownloadException ) {
+			return idempotent;
+		}
+
+		if( e instanceof HttpResponseException && ((HttpResponseException)e).getStatusCode() > 0 ) {
+			int code = ((HttpResponseException)e).getStatusCode();
+			if( code == 429 || code == 503 ) return true;
+			if( code == 408 || code == 500 || code == 502 || code == 504 ) return idempotent;
+			return false;
+		}
+
+		/* find the I/O error that caused the failure */
+		Throwable cause = e;
+		while( cause != null && !(cause instanceof IOException) ) {
+			cause = cause.getCause();
+		}
+		if( cause == null ) {
+			return false;
+		}
+
+		/* the request has not been sent */
+		if( cause instanceof ConnectException
+				|| cause instanceof NoRouteToHostException
+				|| cause instanceof ConnectTimeoutException
+				|| cause instanceof ConnectionPoolTimeoutException ) {
+			return true;
+		}
+
+		if( cause instanceof UnknownHostException
+				|| cause instanceof SSLException
+				|| cause instanceof ClientProtocolException ) {
+			return false;
+		}
+
+		/* the request could have been received */
+		return idempotent && (cause instanceof NoHttpResponseException
+				|| cause instanceof InterruptedIOException
+				|| cause instanceof SocketException
+				|| cause instanceof EOFException);
+	}
+
+	/**
+	 * @return the number of requests retried since the client started
+	 */
+	public static long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return the number of requests failed after having been retried
+	 */
+	public static long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return the total time spent waiting before the retries (millis)
+	 */
+	public static long getDelayMillis() {
+		return delayMillis.get();
+	}
+
+	/**
+	 * @return the retry metrics in a human readable format
+	 */
+	public static String metrics() {
+		return String.format("retries: %s - failed after retry: %s - retry delay: %s ms", retries.get(), failures.get(), delayMillis.get());
+	}
+
+	static void resetMetrics() {
+		retries.set(0);
+		failures.set(0);
+		delayMillis.set(0);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+}
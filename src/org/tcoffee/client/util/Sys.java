@@ -1,5 +1,6 @@
 package org.tcoffee.client.util;
 
+import java.io.PrintStream;
 
 
 /**
@@ -26,72 +27,163 @@ public class Sys {
 	 */
 	static public Version appver = new Version("1.1");
 	
-	static public boolean debug;
+	/* the process settings, the commands forwarded to the agent have their own ones */
+	static private boolean debug;
 	
-	static public boolean quiet = false;
+	static private boolean quiet = false;
+	
+	/**
+	 * Thrown in place of terminating the JVM when the command is executed on behalf of the agent 
+	 */
+	public static class ExitException extends RuntimeException { 
+		
+		private static final long serialVersionUID = 1L;
+
+		public final int code;
+		
+		public ExitException( int code ) { 
+			this.code = code;
+		}
+	}
+	
+	/*
+	 * the output stream and settings of a command forwarded to the agent 
+	 */
+	static class Console { 
+		final PrintStream out;
+		volatile boolean quiet;
+		volatile boolean debug;
+		
+		Console( PrintStream out ) { 
+			this.out = out;
+		}
+	}
+	
+	/*
+	 * the console of the commands forwarded to the agent, it is inherited by the threads they create 
+	 */
+	private static final InheritableThreadLocal<Console> console = new InheritableThreadLocal<Console>();
+	
+	/**
+	 * Redirect the output of the current thread to the specified stream. While redirected the exit methods 
+	 * throw an {@link ExitException} instead of terminating the JVM, and the quiet and debug settings 
+	 * apply only to the current thread and the ones it creates, so that more commands can be executed 
+	 * concurrently by the same process. 
+	 * 
+	 * @param stream the stream to print to, or <code>null</code> to restore the standard output 
+	 */
+	static public void redirect( PrintStream stream ) { 
+		if( stream != null ) { 
+			console.set(new Console(stream));
+		}
+		else { 
+			console.remove();
+		}
+	}
+	
+	/**
+	 * @return the stream where the messages are printed 
+	 */
+	static public PrintStream out() { 
+		Console result = console.get();
+		return result != null ? result.out : System.out;
+	}
+	
+	static public boolean isQuiet() { 
+		Console current = console.get();
+		return current != null ? current.quiet : quiet;
+	}
+	
+	static public void setQuiet( boolean value ) { 
+		Console current = console.get();
+		if( current != null ) current.quiet = value; else quiet = value;
+	}
+	
+	static public boolean isDebug() { 
+		Console current = console.get();
+		return current != null ? current.debug : debug;
+	}
+	
+	static public void setDebug( boolean value ) { 
+		Console current = console.get();
+		if( current != null ) current.debug = value; else debug = value;
+	}
 	
 	static public void print( String message, Object... args ) { 
 
-		if( quiet ) { return; }
+		if( isQuiet() ) { return; }
 		
 		if( args == null || args.length == 0 ) { 
-			System.out.print(message);
+			out().print(message);
 		}
 		else { 
-			System.out.printf(message, args);
+			out().printf(message, args);
 		}
 	}
 	
 	static public void println( String message, Object... args ) { 
 
-		if( quiet ) { return; }
+		if( isQuiet() ) { return; }
 		
 		if( args == null || args.length == 0 ) { 
-			System.out.println(message);
+			out().println(message);
 		}
 		else { 
-			System.out.printf(message, args);
-			System.out.println();
+			out().println(String.format(message, args));
 		}
 	}	
 	
 	public static void error() { 
-		System.exit(1);
+		exit(1);
 	}
 	
 	public static void error(String message, Object ... args ) { 
 		print(message,args);
-		System.out.println();
-		System.exit(1);
+		out().println();
+		exit(1);
 	}
 	
 	public static void error(Throwable e ) { 
-		if( debug ) { 
-			e.printStackTrace();
+		if( e instanceof ExitException ) { 
+			throw (ExitException) e;
+		}
+		
+		if( isDebug() ) { 
+			e.printStackTrace( console.get() != null ? out() : System.err );
 		}
 		else { 
-			System.out.println(e.getMessage());
+			out().println(e.getMessage());
 		}
-		System.exit(1);
+		exit(1);
 	}
 	
 
 	public static void debug(String message, Object ... args) {
-		if( debug ) { 
+		if( isDebug() ) { 
 			print(message, args);
-			System.out.println();
+			out().println();
 		}
 	}
 	
 	public static void debug(Throwable e) { 
-		if( debug && e != null ) { 
-			e.printStackTrace(System.out);
+		if( isDebug() && e != null ) { 
+			e.printStackTrace(out());
 		}
 	}
 
 	public static void exit(String message, Object ... args) {
 		println(message,args);
-		System.exit(0);
+		exit(0);
+	}
+	
+	/**
+	 * Terminate the JVM with the specified status, or throw an {@link ExitException} when the output is redirected 
+	 */
+	public static void exit(int code) { 
+		if( console.get() != null ) { 
+			throw new ExitException(code);
+		}
+		System.exit(code);
 	}
 		
 }
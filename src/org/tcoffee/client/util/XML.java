@@ -5,12 +5,17 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tcoffee.client.data.ErrorData;
@@ -23,7 +28,9 @@ import org.tcoffee.client.data.SubmitData;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.converters.Converter;
 import com.thoughtworks.xstream.converters.SingleValueConverter;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+import com.thoughtworks.xstream.io.xml.QNameMap;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
+import com.thoughtworks.xstream.io.xml.StaxReader;
 
 /**
  * XML helper class 
@@ -36,12 +43,25 @@ public class XML {
 	private static final Logger log = LoggerFactory.getLogger(XML.class);
 	
 
-	private static final XStream xstream;
+	/*
+	 * the xstream instance is created on first use, the server responses are decoded by the {@link ResponseDecoder} 
+	 */
+	private static class Holder { 
+		static final XStream xstream = create();
+		
+		static XStream create() { 
+			/* 
+			 * create an xstream instance, the StAX driver pull parses the document 
+			 * without building an intermediate DOM tree 
+			 */
+			XStream result = new XStream(new StaxDriver());
+			xstreamRegisterAliases(result);
+			return result;
+		}
+	}
 	
-	static {
-		/* create an xstream instance */
-		xstream = new XStream(new DomDriver());
-		xstreamRegisterAliases();	
+	static XStream xstream() { 
+		return Holder.xstream;
 	}
 	
 	static void xstreamRegisterConverters() { 
@@ -55,11 +75,11 @@ public class XML {
 			try {
 				if( Converter.class.isAssignableFrom(clazz) ) { 
 					log.debug(String.format("Registering XStream converter: %s", clazz)); 
-					xstream.registerConverter((Converter)clazz.newInstance());
+					xstream().registerConverter((Converter)clazz.newInstance());
 				}
 				else if( SingleValueConverter.class.isAssignableFrom(clazz) ) {
 					log.debug(String.format("Registering XStream converter: %s", clazz)); 
-					xstream.registerConverter((SingleValueConverter)clazz.newInstance());
+					xstream().registerConverter((SingleValueConverter)clazz.newInstance());
 				}
 				else {
 					log.warn(String.format("Unknown converter class: %s", clazz));
@@ -72,7 +92,7 @@ public class XML {
 		
 	}
 	
-	static void xstreamRegisterAliases() { 
+	static void xstreamRegisterAliases( XStream xstream ) { 
 		/* process models for annotation */
 		xstream.processAnnotations(ErrorData.class);
 		xstream.processAnnotations(ResponseData.class);
@@ -140,30 +160,60 @@ public class XML {
     }   
 	
     
-	@SuppressWarnings("unchecked")
 	public static <T> T fromXML(File file) {
 
+		InputStream stream = null;
+		try {
+			stream = new FileInputStream(file);
+			return fromXML(stream);
+		} 
+		catch (FileNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+		finally { 
+			try { if( stream != null ) stream.close(); } catch( IOException e ) { log.debug("Error on closing file: '{}'", file); }
+		}
+	}
+	
+	/**
+	 * Parse the XML document reading it from the specified stream. The stream is not closed. 
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T fromXML(InputStream stream) {
 		try {
-			return (T) xstream.fromXML( new FileInputStream(file) );
-		} catch (FileNotFoundException e) {
+			return (T) ResponseDecoder.decode(stream);
+		} 
+		catch (XMLStreamException e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
 	@SuppressWarnings("unchecked")
 	public static <T> T fromXML(String xml) {
-		return (T) xstream.fromXML(xml);
+		try {
+			return (T) ResponseDecoder.decode(new StringReader(xml));
+		} 
+		catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/*
+	 * unmarshal a document by the generic xstream mapping
+	 */
+	static Object unmarshal( XMLStreamReader reader ) { 
+		return xstream().unmarshal( new StaxReader(new QNameMap(), reader) );
 	}
 	
 	public static String toXML(Object obj) {
-		return xstream.toXML(obj);
+		return xstream().toXML(obj);
 	}
 	
 	public static void toXML(Object obj, File file) {
 		FileWriter writer = null;
 		try {
 			writer = new FileWriter(file);
-			xstream.toXML(obj,writer);
+			xstream().toXML(obj,writer);
 		} 
 		catch (IOException e) {
 			throw new RuntimeException(e);
@@ -0,0 +1,198 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tcoffee.client.util.Sys;
+
+public class AgentTest {
+
+	private File file;
+
+	private Agent agent;
+
+	private Thread thread;
+
+	@Before
+	public void before() throws Exception {
+		file = File.createTempFile("test", ".agent");
+		agent = new Agent(file);
+		agent.start();
+
+		thread = new Thread() {
+			public void run() {
+				agent.serve();
+			}};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void after() throws Exception {
+		agent.stop();
+		thread.join(5000);
+		file.delete();
+		Sys.setQuiet(false);
+	}
+
+	@Test
+	public void testForward() throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		Integer code = Agent.forward(file, new String[] { "--ver" }, new PrintStream(buffer));
+
+		assertEquals( Integer.valueOf(0), code );
+		assertEquals( Sys.appver.toString(), buffer.toString().trim() );
+
+		/* the agent is still running and serves the next command */
+		buffer.reset();
+		code = Agent.forward(file, new String[] { "--help" }, new PrintStream(buffer));
+		assertEquals( Integer.valueOf(0), code );
+		assertTrue( buffer.toString().contains("--no-agent") );
+	}
+
+	/*
+	 * forward a command in background, returning the thread that waits for it
+	 */
+	Thread forward( final String[] args, final ByteArrayOutputStream buffer, final Integer[] code ) {
+		Thread result = new Thread() {
+			public void run() {
+				code[0] = Agent.forward(file, args, new PrintStream(buffer, true));
+			}};
+		result.start();
+		return result;
+	}
+
+	@Test
+	public void testConcurrentCommands() throws Exception {
+		LocalServer server = new LocalServer();
+		server.reply("/api/tcoffee/ping", new LocalServer.Reply(200, "<response><status>OK</status></response>").delay(1500));
+		try {
+			/* a slow command does not block the others */
+			ByteArrayOutputStream slow = new ByteArrayOutputStream();
+			Integer[] slowCode = new Integer[1];
+			Thread thread = forward(new String[] { "--ping", "--quiet", "--host=" + server.host() }, slow, slowCode);
+			Thread.sleep(300);
+
+			long begin = System.currentTimeMillis();
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			assertEquals( Integer.valueOf(0), Agent.forward(file, new String[] { "--ver" }, new PrintStream(buffer)) );
+			assertTrue( System.currentTimeMillis() - begin < 1000 );
+			assertEquals( Sys.appver.toString(), buffer.toString().trim() );
+
+			/* the quiet option of the first command does not apply to the second one */
+			thread.join(5000);
+			assertEquals( Integer.valueOf(0), slowCode[0] );
+			assertEquals( "", slow.toString() );
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testStopWhileRunning() throws Exception {
+		LocalServer server = new LocalServer();
+		server.reply("/api/tcoffee/ping", new LocalServer.Reply(200, "<response><status>OK</status></response>").delay(1500));
+		try {
+			ByteArrayOutputStream slow = new ByteArrayOutputStream();
+			Integer[] slowCode = new Integer[1];
+			Thread command = forward(new String[] { "--ping", "--host=" + server.host() }, slow, slowCode);
+			Thread.sleep(300);
+
+			/* the stop command does not wait for the running one, which still completes */
+			long begin = System.currentTimeMillis();
+			assertEquals( Integer.valueOf(0), Agent.forward(file, new String[] { Agent.STOP }, System.out) );
+			assertTrue( System.currentTimeMillis() - begin < 1000 );
+			assertFalse( file.exists() );
+
+			command.join(5000);
+			assertEquals( Integer.valueOf(0), slowCode[0] );
+			assertTrue( slow.toString().contains(">ping: OK") );
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testAcceptTimeout() throws Exception {
+		agent.stop();
+		thread.join(5000);
+
+		/* an agent accepting the connection but never acknowledging the command */
+		ServerSocket hung = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		File stale = File.createTempFile("test", ".agent");
+		try {
+			FileUtils.writeStringToFile(stale, "port=" + hung.getLocalPort() + "\ntoken=x\ncwd=" + System.getProperty("user.dir").replace("\\", "\\\\"));
+			long begin = System.currentTimeMillis();
+			assertNull( Agent.forward(stale, new String[] { "--ver" }, System.out) );
+			assertTrue( System.currentTimeMillis() - begin < Agent.ACCEPT_TIMEOUT + 1000 );
+		}
+		finally {
+			hung.close();
+			stale.delete();
+		}
+	}
+
+	@Test
+	public void testForwardError() throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		Integer code = Agent.forward(file, new String[] { "--batch=", "--host=127.0.0.1:1" }, new PrintStream(buffer));
+
+		assertEquals( Integer.valueOf(1), code );
+		assertTrue( buffer.toString().contains("You have to provide the batch file") );
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		assertTrue( Agent.isRunning(file) );
+		assertEquals( Integer.valueOf(0), Agent.forward(file, new String[] { Agent.STOP }, System.out) );
+
+		thread.join(5000);
+		assertFalse( thread.isAlive() );
+		assertFalse( file.exists() );
+
+		/* no agent, the command is executed in-process */
+		assertNull( Agent.forward(file, new String[] { "--ver" }, System.out) );
+	}
+
+	@Test
+	public void testDifferentFolder() throws Exception {
+		String cwd = System.getProperty("user.dir");
+		System.setProperty("user.dir", new File(cwd).getParent());
+		try {
+			assertNull( Agent.forward(file, new String[] { "--ver" }, System.out) );
+		}
+		finally {
+			System.setProperty("user.dir", cwd);
+		}
+	}
+
+	@Test
+	public void testStaleFile() throws Exception {
+		agent.stop();
+		thread.join(5000);
+
+		/* a file left by an agent terminated abruptly */
+		File stale = File.createTempFile("test", ".agent");
+		try {
+			org.apache.commons.io.FileUtils.writeStringToFile(stale, "port=1\ntoken=x\ncwd=" + System.getProperty("user.dir"));
+			assertFalse( Agent.isRunning(stale) );
+			assertNull( Agent.forward(stale, new String[] { "--ver" }, System.out) );
+		}
+		finally {
+			stale.delete();
+		}
+	}
+
+}
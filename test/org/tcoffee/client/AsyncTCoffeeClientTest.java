@@ -0,0 +1,135 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.SubmitData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.exception.ServerResponseException;
+import org.tcoffee.client.util.IO;
+import org.tcoffee.client.util.Retry;
+
+public class AsyncTCoffeeClientTest {
+
+	private LocalServer server;
+
+	private AsyncTCoffeeClient client;
+
+	@Before
+	public void before() throws Exception {
+		server = new LocalServer();
+		client = new AsyncTCoffeeClient(server.host(), "bundle", 2);
+		client.setPollSleepSecs(0);
+	}
+
+	@After
+	public void after() {
+		client.close();
+		server.stop();
+	}
+
+	@Test
+	public void testSubmitAndWait() throws Exception {
+		server.reply("/api/bundle/run", 200,
+				"<response><submit><request-id>999</request-id><status>Running</status><url>/999.html</url></submit></response>");
+
+		server.reply("/api/bundle/result", 200, "<response><result><status>Running</status></result></response>");
+		server.reply("/api/bundle/result", 200, "<response><result><status>Running</status></result></response>");
+		server.reply("/api/bundle/result", 200,
+				"<response><result><status>Done</status>" +
+				"<item><webpath>/data/999/file1.aln</webpath><type>msa</type><name>file1.aln</name><format>aln</format></item>" +
+				"<item><webpath>/data/999/input.fa</webpath><type>input_file</type><name>input.fa</name><format>fasta</format></item>" +
+				"</result></response>");
+		server.reply("/data/999/file1.aln", 200, "CLUSTAL W");
+
+		SubmitData submit = client.submitAsync("-in=seq.fa", null).get(5, TimeUnit.SECONDS);
+		assertEquals( "999", submit.requestId );
+
+		ResultData result = client.waitForResultAsync(submit.requestId).get(5, TimeUnit.SECONDS);
+		assertTrue( result.isStatusDONE() );
+		assertEquals( 3, server.count("GET /api/bundle/result?rid=999") );
+
+		File root = new File("testSubmitAndWait");
+		client.setOutputPath(root);
+		try {
+			List<File> files = client.downloadResultItemsAsync(result).get(5, TimeUnit.SECONDS);
+			assertEquals( 1, files.size() );
+			assertEquals( new File(root,"file1.aln"), files.get(0) );
+			assertEquals( "CLUSTAL W", IO.readContentAsString(files.get(0)).trim() );
+		}
+		finally {
+			FileUtils.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void testResumeDownload() throws Exception {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/file", new LocalServer.Reply(200, content).ranges().dropAfter(10));
+		server.reply("/file", new LocalServer.Reply(200, content).ranges());
+		client.http.setRetry(new Retry(3, 10, 10));
+
+		File target = new File("testAsyncResumeDownload.txt");
+		File part = new File("testAsyncResumeDownload.txt.part");
+		try {
+			assertEquals( target, client.getFile("http://" + server.host() + "/file", target).get(5, TimeUnit.SECONDS) );
+			assertEquals( content, FileUtils.readFileToString(target) );
+			assertFalse( part.exists() );
+			assertEquals( 2, server.count("GET /file") );
+			assertEquals( "bytes=10-", server.lastHeaders.get("Range").get(0) );
+		}
+		finally {
+			target.delete();
+			part.delete();
+		}
+	}
+
+	@Test
+	public void testIncompleteDownload() throws Exception {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/file", new LocalServer.Reply(200, content).dropAfter(10));
+		client.http.setRetry(Retry.NONE);
+
+		/* the truncated content is never saved as the target file */
+		File target = new File("testAsyncIncompleteDownload.txt");
+		File part = new File("testAsyncIncompleteDownload.txt.part");
+		try {
+			client.getFile("http://" + server.host() + "/file", target).get(5, TimeUnit.SECONDS);
+			fail();
+		}
+		catch( ExecutionException e ) {
+			assertTrue( e.getCause() instanceof ClientException );
+			assertFalse( target.exists() );
+			assertEquals( 10, part.length() );
+		}
+		finally {
+			target.delete();
+			part.delete();
+		}
+	}
+
+	@Test
+	public void testServerError() throws Exception {
+		server.reply("/api/bundle/result", 400,
+				"<response><err><code>400</code><type>Bad request</type><message>Unknown request</message></err></response>");
+
+		try {
+			client.waitForResultAsync("xxx").get(5, TimeUnit.SECONDS);
+			fail();
+		}
+		catch( ExecutionException e ) {
+			assertTrue( e.getCause() instanceof ServerResponseException );
+			assertEquals( "Unknown request", e.getCause().getMessage() );
+		}
+	}
+
+}
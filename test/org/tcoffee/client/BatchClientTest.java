@@ -0,0 +1,152 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.tcoffee.client.BatchClient.Job;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.SubmitData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.util.IO;
+
+public class BatchClientTest {
+
+	@Test
+	public void testParseManifest() throws IOException {
+		File seq = new File("testParseManifest.fa");
+		File manifest = new File("testParseManifest.txt");
+		IO.writeContent(">seq\nAAA", seq);
+		IO.writeContent(
+				"# comment line\n" +
+				"-in=file:testParseManifest.fa -mode=mcoffee\n" +
+				"\n" +
+				"  file:testParseManifest.fa -output=fasta  ", manifest);
+
+		try {
+			List<Job> jobs = BatchClient.parseManifest(manifest);
+			assertEquals( 2, jobs.size() );
+
+			assertEquals( "-in=testParseManifest.fa -mode=mcoffee", jobs.get(0).cmdline );
+			assertEquals( 1, jobs.get(0).files.size() );
+			assertEquals( seq, jobs.get(0).files.get(0) );
+
+			assertEquals( "testParseManifest.fa -output=fasta", jobs.get(1).cmdline );
+			assertEquals( seq, jobs.get(1).files.get(0) );
+		}
+		finally {
+			seq.delete();
+			manifest.delete();
+		}
+	}
+
+	@Test
+	public void testManifestQuotes() throws IOException {
+		File seq = new File("test Manifest Quotes.fa");
+		File manifest = new File("testManifestQuotes.txt");
+		IO.writeContent(">seq\nAAA", seq);
+		IO.writeContent("-in=\"file:test Manifest Quotes.fa\"  -mode='m coffee'\n", manifest);
+
+		try {
+			List<Job> jobs = BatchClient.parseManifest(manifest);
+			assertEquals( 1, jobs.size() );
+			assertEquals( seq, jobs.get(0).files.get(0) );
+			assertEquals( "-in=test Manifest Quotes.fa -mode=m coffee", jobs.get(0).cmdline );
+		}
+		finally {
+			seq.delete();
+			manifest.delete();
+		}
+
+		assertArrayEquals( new String[] { "-in=a b", "c" }, BatchClient.tokenize(" -in='a b'\tc ") );
+		try {
+			BatchClient.tokenize("-in=\"a b");
+			fail();
+		}
+		catch( ClientException e ) {
+			assertTrue( e.getMessage().contains("quote") );
+		}
+	}
+
+	@Test
+	public void testRunWithConcurrencyLimit() throws IOException {
+
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final File root = new File("testRunWithConcurrencyLimit");
+		final Set<String> polled = Collections.synchronizedSet(new HashSet<String>());
+
+		BatchClient batch = new BatchClient(new BatchClient.ClientFactory() {
+			public TCoffeeClient create() {
+				TCoffeeClient client = new TCoffeeClient("localhost", "bundle") {
+
+					@Override
+					public SubmitData submit(String cmdline, List<File> files) {
+						int n = running.incrementAndGet();
+						synchronized (maxRunning) {
+							if( n > maxRunning.get() ) maxRunning.set(n);
+						}
+						SubmitData result = new SubmitData();
+						result.requestId = "rid-" + count.incrementAndGet();
+						return result;
+					}
+
+					@Override
+					ResultData getResultFor(String requestId) {
+						/* report the job running on the first poll */
+						ResultData result = new ResultData();
+						result.status = polled.add(requestId) ? "Running" : requestId.equals("rid-3") ? "Failed" : "Done";
+						return result;
+					}
+
+					@Override
+					void downloadResultItems(String requestId, ResultData result) {
+						running.decrementAndGet();
+						assertEquals( requestId, getOutputPath().getName() );
+						assertEquals( root, getOutputPath().getParentFile() );
+						assertTrue( getOutputPath().getName().startsWith("rid-") );
+					}
+				};
+				client.setOutputPath(root);
+				client.setPollSleepSecs(0);
+				return client;
+			}} );
+
+		batch.setConcurrency(2);
+
+		List<Job> jobs = new ArrayList<Job>();
+		for( int i=0; i<6; i++ ) {
+			jobs.add( new Job("-in=seq" + i, null) );
+		}
+
+		try {
+			batch.run(jobs);
+		}
+		finally {
+			FileUtils.deleteDirectory(root);
+		}
+
+		assertEquals( 6, count.get() );
+		assertEquals( 2, maxRunning.get() );
+
+		int done = 0;
+		for( Job job : jobs ) {
+			assertNotNull( job.requestId );
+			assertNotNull( job.result );
+			assertTrue( polled.contains(job.requestId) );
+			if( job.isDone() ) done++;
+		}
+		assertEquals( 5, done );
+	}
+
+}
@@ -0,0 +1,231 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.tcoffee.client.HostRouter.Host;
+import org.tcoffee.client.data.ResultData;
+
+public class HostRouterTest {
+
+	static Host host( HostRouter router, int index, double latency ) {
+		Host result = router.getHosts().get(index);
+		result.healthy = latency >= 0;
+		result.latency = latency;
+		return result;
+	}
+
+	@Test
+	public void testParse() {
+		assertEquals( Arrays.asList("a:80","b"), HostRouter.parse(" a:80, ,b") );
+		assertEquals( Arrays.asList("tcoffee.crg.cat"), HostRouter.parse("tcoffee.crg.cat") );
+	}
+
+	@Test
+	public void testSelect() {
+		HostRouter router = new HostRouter(Arrays.asList("a","b","c"), "tcoffee");
+		host(router, 0, 10);
+		host(router, 1, 25);
+		host(router, 2, -1);
+
+		/* the fastest healthy host */
+		assertEquals( "a", router.select() );
+
+		/* the load moves the next requests to the other host */
+		router.submitted("a", "1");
+		router.submitted("a", "2");
+		assertEquals( 2, router.getHosts().get(0).getInflight() );
+		assertEquals( "b", router.select() );
+
+		/* completing a request more times has no effect */
+		router.completed("1");
+		router.completed("1");
+		assertEquals( 1, router.getHosts().get(0).getInflight() );
+		assertEquals( "a", router.select() );
+
+		/* a host failing a submission is excluded */
+		router.failed("a");
+		assertEquals( "b", router.select() );
+
+		/* no healthy host, the least loaded */
+		router.failed("b");
+		assertEquals( "b", router.select() );
+	}
+
+	@Test
+	public void testHealthCheck() throws Exception {
+		LocalServer server = new LocalServer();
+		server.reply("/api/tcoffee/ping", 200, "<response><status>OK</status></response>");
+		try {
+			HostRouter router = new HostRouter(Arrays.asList("127.0.0.1:1", server.host()), "tcoffee");
+			router.start();
+
+			assertEquals( server.host(), router.select() );
+			assertTrue( router.getHosts().get(1).isHealthy() );
+			assertTrue( router.getHosts().get(1).getLatency() >= 0 );
+			router.shutdown();
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testStartOnDemand() throws Exception {
+		LocalServer server = new LocalServer();
+		server.reply("/api/tcoffee/ping", 200, "<response><status>OK</status></response>");
+		try {
+			HostRouter router = new HostRouter(Arrays.asList("127.0.0.1:1", server.host()), "tcoffee");
+			router.startOnDemand();
+			Thread.sleep(100);
+			assertEquals( 0, server.count("GET") );
+
+			/* the first selection starts the checks */
+			assertEquals( server.host(), router.select() );
+			assertEquals( 1, server.count("GET /api/tcoffee/ping") );
+			router.shutdown();
+		}
+		finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testRouting() throws Exception {
+		LocalServer a = new LocalServer();
+		LocalServer b = new LocalServer();
+		a.reply("/api/tcoffee/run", 200, "<response><submit><request-id>a1</request-id></submit></response>");
+		a.reply("/api/tcoffee/result", 200, "<response><result><status>Done</status></result></response>");
+		b.reply("/api/tcoffee/run", 200, "<response><submit><request-id>b1</request-id></submit></response>");
+		b.reply("/api/tcoffee/result", 200, "<response><result><status>Done</status></result></response>");
+
+		try {
+			HostRouter router = new HostRouter(Arrays.asList(a.host(), b.host()), "tcoffee");
+			host(router, 0, 5);
+			host(router, 1, 5);
+
+			TCoffeeClient first = new TCoffeeClient(a.host(), "tcoffee");
+			first.setRouter(router);
+			TCoffeeClient second = new TCoffeeClient(a.host(), "tcoffee");
+			second.setRouter(router);
+
+			/* the second request goes to the idle mirror */
+			assertEquals( "a1", first.submit("-in=x", null).requestId );
+			assertEquals( "b1", second.submit("-in=y", null).requestId );
+			assertEquals( b.host(), second.getHost() );
+
+			/* the result is polled from the host that accepted the request */
+			ResultData result = second.waitForResult("b1");
+			assertTrue( result.isStatusDONE() );
+			assertEquals( 1, b.count("GET /api/tcoffee/result") );
+			assertEquals( 0, a.count("GET /api/tcoffee/result") );
+			assertEquals( 0, router.getHosts().get(1).getInflight() );
+			assertEquals( 1, router.getHosts().get(0).getInflight() );
+		}
+		finally {
+			a.stop();
+			b.stop();
+		}
+	}
+
+	static final String RUNNING = "<response><result><service>regular</service><status>Running</status><elapsed-time>1000</elapsed-time></result></response>";
+
+	static final String DONE = "<response><result><service>regular</service><status>Done</status><elapsed-time>1200</elapsed-time></result></response>";
+
+	static final String FAILED = "<response><result><service>regular</service><status>Failed</status><elapsed-time>1100</elapsed-time></result></response>";
+
+	TCoffeeClient hedgeClient( LocalServer a, LocalServer b ) {
+		a.reply("/api/tcoffee/run", 200, "<response><submit><request-id>a1</request-id></submit></response>");
+		b.reply("/api/tcoffee/run", 200, "<response><submit><request-id>b1</request-id></submit></response>");
+
+		HostRouter router = new HostRouter(Arrays.asList(a.host(), b.host()), "tcoffee");
+		host(router, 0, 5);
+		host(router, 1, 10);
+
+		/* the request usually completes in half a second */
+		ServiceStats stats = new ServiceStats();
+		stats.record("regular", 500);
+
+		TCoffeeClient client = new TCoffeeClient(a.host(), "tcoffee");
+		client.setRouter(router);
+		client.setServiceStats(stats);
+		client.setHedgePercentile(90);
+		client.setPollSleepSecs(0);
+		return client;
+	}
+
+	@Test
+	public void testHedge() throws Exception {
+		LocalServer a = new LocalServer();
+		LocalServer b = new LocalServer();
+		try {
+			TCoffeeClient client = hedgeClient(a, b);
+			a.reply("/api/tcoffee/result", 200, RUNNING);
+			b.reply("/api/tcoffee/result", 200, DONE);
+
+			assertEquals( "a1", client.submit("-in=x", null).requestId );
+			ResultData result = client.waitForResult("a1");
+
+			/* the duplicate request completed first */
+			assertTrue( result.isStatusDONE() );
+			assertEquals( "b1", client.getRequestId() );
+			assertEquals( b.host(), client.getHost() );
+			assertEquals( 1, b.count("POST /api/tcoffee/run") );
+			assertEquals( 0, client.getRouter().getHosts().get(0).getInflight() );
+			assertEquals( 0, client.getRouter().getHosts().get(1).getInflight() );
+		}
+		finally {
+			a.stop();
+			b.stop();
+		}
+	}
+
+	@Test
+	public void testHedgeAfterFailure() throws Exception {
+		LocalServer a = new LocalServer();
+		LocalServer b = new LocalServer();
+		try {
+			TCoffeeClient client = hedgeClient(a, b);
+			a.reply("/api/tcoffee/result", 200, RUNNING);
+			a.reply("/api/tcoffee/result", 200, FAILED);
+			b.reply("/api/tcoffee/result", 200, RUNNING);
+			b.reply("/api/tcoffee/result", 200, DONE);
+
+			client.submit("-in=x", null);
+			ResultData result = client.waitForResult("a1");
+
+			/* the original request failed, the result is the one of the duplicate */
+			assertTrue( result.isStatusDONE() );
+			assertEquals( "b1", client.getRequestId() );
+			assertEquals( 2, a.count("GET /api/tcoffee/result") );
+		}
+		finally {
+			a.stop();
+			b.stop();
+		}
+	}
+
+	@Test
+	public void testNoHedgeWithoutHistory() throws Exception {
+		LocalServer a = new LocalServer();
+		LocalServer b = new LocalServer();
+		try {
+			TCoffeeClient client = hedgeClient(a, b);
+			client.setServiceStats(new ServiceStats());
+			a.reply("/api/tcoffee/result", 200, RUNNING);
+			a.reply("/api/tcoffee/result", 200, DONE);
+
+			client.submit("-in=x", null);
+			assertTrue( client.waitForResult("a1").isStatusDONE() );
+			assertEquals( "a1", client.getRequestId() );
+			assertEquals( 0, b.count("POST") );
+		}
+		finally {
+			a.stop();
+			b.stop();
+		}
+	}
+
+}
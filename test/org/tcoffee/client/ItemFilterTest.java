@@ -0,0 +1,65 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.tcoffee.client.data.ResultItemData;
+import org.tcoffee.client.exception.ClientException;
+
+public class ItemFilterTest {
+
+	static ResultItemData item( String type, String format, String name ) { 
+		ResultItemData result = new ResultItemData();
+		result.type = type;
+		result.format = format;
+		result.name = name;
+		return result;
+	}
+	
+	static final ResultItemData ALN = item("msa", "clustalw_aln", "result/seq.aln");
+
+	static final ResultItemData HTML = item("msa", "score_html", "result/seq.score_html");
+
+	static final ResultItemData TREE = item("tree", "newick", "result/seq.dnd");
+
+	@Test
+	public void testEmpty() { 
+		ItemFilter filter = new ItemFilter(null, " , ");
+		assertTrue( filter.isEmpty() );
+		assertTrue( filter.accept(ALN) );
+		assertTrue( filter.accept(item(null, null, null)) );
+	}
+	
+	@Test
+	public void testInclude() { 
+		ItemFilter filter = new ItemFilter("format:clustalw_aln, name:*.dnd", null);
+		assertFalse( filter.isEmpty() );
+		assertTrue( filter.accept(ALN) );
+		assertTrue( filter.accept(TREE) );
+		assertFalse( filter.accept(HTML) );
+		
+		/* the name patterns match the whole path as well */
+		assertTrue( new ItemFilter("name:result/*.aln", null).accept(ALN) );
+		assertFalse( new ItemFilter("name:msa", null).accept(ALN) );
+	}
+	
+	@Test
+	public void testExclude() { 
+		ItemFilter filter = new ItemFilter("type:msa", "*html");
+		assertTrue( filter.accept(ALN) );
+		assertFalse( filter.accept(HTML) );
+		assertFalse( filter.accept(TREE) );
+
+		/* a pattern without prefix matches the type, format or name */
+		assertFalse( new ItemFilter(null, "tree").accept(TREE) );
+		assertFalse( new ItemFilter(null, "newick").accept(TREE) );
+		assertFalse( new ItemFilter(null, "seq.d?d").accept(TREE) );
+		assertTrue( new ItemFilter(null, "seq").accept(TREE) );
+	}
+	
+	@Test(expected=ClientException.class)
+	public void testInvalidAttribute() { 
+		new ItemFilter("label:x", null);
+	}
+	
+}
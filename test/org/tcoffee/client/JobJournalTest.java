@@ -0,0 +1,182 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.ResultItemData;
+import org.tcoffee.client.util.Http;
+import org.tcoffee.client.util.IO;
+
+public class JobJournalTest {
+
+	private File file = new File("testJobJournal.journal");
+
+	private File root = new File("testJobJournal");
+
+	@Before
+	public void before() {
+		file.delete();
+	}
+
+	@After
+	public void after() throws IOException {
+		file.delete();
+		new File(file.getPath() + ".lock").delete();
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testOpenOnFirstUse() throws IOException {
+		JobJournal journal = new JobJournal(file);
+		journal.submitted("1", "host", "bundle", root, "-in=a.fa");
+		journal.completed("1");
+		long length = file.length();
+
+		/* creating the journal does not read nor compact the file */
+		journal = new JobJournal(file);
+		assertEquals( length, file.length() );
+		assertEquals( 0, journal.pending().size() );
+		assertEquals( 0, file.length() );
+	}
+
+	@Test
+	public void testCompactKeepsConcurrentEvents() {
+		JobJournal first = new JobJournal(file);
+		first.submitted("1", "host", "bundle", root, "-in=a.fa");
+
+		/* another process submits a request after the first one has loaded the journal */
+		JobJournal second = new JobJournal(file);
+		second.submitted("2", "host", "bundle", root, "-in=b.fa");
+
+		first.completed("1");
+		first.compact();
+
+		List<JobJournal.Entry> pending = new JobJournal(file).pending();
+		assertEquals( 1, pending.size() );
+		assertEquals( "2", pending.get(0).requestId );
+		assertEquals( 1, first.pending().size() );
+	}
+
+	@Test
+	public void testPending() {
+		JobJournal journal = new JobJournal(file);
+		journal.submitted("1", "host", "bundle", root, "-in=a.fa");
+		journal.submitted("2", "host", "bundle", root, "-in=b.fa");
+		journal.status("1", "Done");
+		journal.downloaded("1", new File(root, "a.aln"));
+		journal.completed("1");
+		journal.downloaded("2", new File(root, "b.aln"));
+
+		/* unknown requests are ignored */
+		journal.status("3", "Done");
+
+		assertEquals( 1, journal.pending().size() );
+
+		/* reload from file */
+		journal = new JobJournal(file);
+		List<JobJournal.Entry> pending = journal.pending();
+		assertEquals( 1, pending.size() );
+		assertEquals( "2", pending.get(0).requestId );
+		assertEquals( "host", pending.get(0).host );
+		assertEquals( "bundle", pending.get(0).bundle );
+		assertEquals( root.getAbsoluteFile(), pending.get(0).outpath );
+		assertEquals( "-in=b.fa", pending.get(0).cmdline );
+		assertEquals( 1, pending.get(0).downloaded.size() );
+	}
+
+	@Test
+	public void testCompact() throws IOException {
+		JobJournal journal = new JobJournal(file);
+		journal.submitted("1", "host", "bundle", root, "-in=a.fa");
+		journal.completed("1");
+		journal.submitted("2", "host", "bundle", root, "-in=b.fa");
+		journal.status("2", "Running");
+		journal.status("2", "Running");
+
+		/* the status row is written only on transitions */
+		assertEquals( 4, IO.readContentAsString(file).split("\n").length );
+
+		/* completed requests are removed on reload, a truncated row is skipped */
+		FileUtils.writeStringToFile(file, IO.readContentAsString(file) + "12345\tSUBMIT\t3\thost");
+		journal = new JobJournal(file);
+		assertEquals( 1, journal.pending().size() );
+		assertEquals( "Running", journal.pending().get(0).status );
+		assertEquals( 2, IO.readContentAsString(file).split("\n").length );
+	}
+
+	@Test
+	public void testTornRow() throws IOException {
+		JobJournal journal = new JobJournal(file);
+		journal.submitted("1", "host", "bundle", root, "-in=a.fa");
+		journal.status("1", "Running");
+
+		/* the last field of a row cut short by a crash looks valid, but the end marker is missing */
+		FileUtils.writeStringToFile(file, IO.readContentAsString(file) + "12345\tSTATUS\t1\tDo");
+		journal = new JobJournal(file);
+		assertEquals( "Running", journal.pending().get(0).status );
+
+		/* the next row is not appended to the torn one */
+		FileUtils.writeStringToFile(file, IO.readContentAsString(file) + "12345\tSTATUS\t1\tDo");
+		journal = new JobJournal(file);
+		journal.status("1", "Done");
+		journal.completed("1");
+		assertEquals( 0, new JobJournal(file).pending().size() );
+	}
+
+	@Test
+	public void testResumeDownload() throws IOException {
+		final List<String> downloaded = new ArrayList<String>();
+
+		TCoffeeClient client = new TCoffeeClient("localhost", "bundle");
+		client.http = new Http() {
+			public File getFile(String uri, File target) {
+				downloaded.add(uri);
+				try {
+					IO.writeContent(uri, target);
+				}
+				catch( IOException e ) {
+					throw new RuntimeException(e);
+				}
+				return target;
+			}
+		};
+
+		JobJournal journal = new JobJournal(file);
+		journal.submitted("99", "localhost", "bundle", root, "-in=a.fa");
+		client.setJournal(journal);
+		client.setOutputPath(root);
+
+		/* the first file has been downloaded by a previous execution */
+		File first = new File(root, "file1.txt");
+		IO.writeContent("alpha", first);
+		journal.downloaded("99", first);
+
+		ResultData result = new ResultData();
+		result.status = "Done";
+		result.items = new ArrayList<ResultItemData>();
+		for( String name : new String[] { "file1.txt", "file2.txt" } ) {
+			ResultItemData item = new ResultItemData();
+			item.webpath = "/data/" + name;
+			item.name = name;
+			result.items.add(item);
+		}
+
+		client.downloadResultItems("99", result);
+
+		assertEquals( 1, downloaded.size() );
+		assertEquals( "http://localhost/data/file2.txt", downloaded.get(0) );
+		assertEquals( "alpha", IO.readContentAsString(first).trim() );
+		assertTrue( new File(root, "file2.txt").exists() );
+		assertEquals( 0, new JobJournal(file).pending().size() );
+	}
+
+}
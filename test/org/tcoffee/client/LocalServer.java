@@ -0,0 +1,206 @@
+package org.tcoffee.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the T-Coffee server used by the tests.
+ * <p>
+ * Responses are registered by path (the query string is ignored), when more responses are
+ * registered for the same path they are returned in order and the last one is repeated
+ *
+ */
+public class LocalServer {
+
+	static public class Reply {
+		public int status = 200;
+		public byte[] body;
+		public Map<String,String> headers = new HashMap<String, String>();
+		/** Serve the <code>Range</code> requests with a partial content response */
+		public boolean ranges;
+		/** When not negative, close the connection after sending this number of bytes */
+		public int dropAfter = -1;
+		/** Wait this number of milliseconds before sending the response */
+		public long delay;
+		/** Compress the body when the client accepts the gzip encoding */
+		public boolean gzip;
+
+		public Reply( int status, String body ) {
+			this(status, body.getBytes());
+		}
+
+		public Reply( int status, byte[] body ) {
+			this.status = status;
+			this.body = body;
+		}
+
+		public Reply header( String name, String value ) {
+			headers.put(name, value);
+			return this;
+		}
+
+		public Reply ranges() {
+			ranges = true;
+			return this;
+		}
+
+		public Reply dropAfter( int bytes ) {
+			dropAfter = bytes;
+			return this;
+		}
+
+		public Reply delay( long millis ) {
+			delay = millis;
+			return this;
+		}
+
+		public Reply gzip() {
+			gzip = true;
+			return this;
+		}
+	}
+
+	private HttpServer server;
+
+	private Map<String,LinkedList<Reply>> replies = new HashMap<String, LinkedList<Reply>>();
+
+	/** The list of request served, in the form <code>METHOD /path?query</code> */
+	public List<String> requests = new LinkedList<String>();
+
+	/** The headers of the last request served */
+	public Map<String,List<String>> lastHeaders;
+
+	/** The body of the last request served, as received */
+	public byte[] lastBody;
+
+	/** Reply with status 415 to the requests having a compressed body */
+	public boolean rejectGzip;
+
+	public LocalServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}} );
+		server.start();
+	}
+
+	/**
+	 * @return the server address in the form <code>localhost:port</code>
+	 */
+	public String host() {
+		return "localhost:" + server.getAddress().getPort();
+	}
+
+	public synchronized LocalServer reply( String path, int status, String body ) {
+		return reply(path, new Reply(status, body));
+	}
+
+	public synchronized LocalServer reply( String path, Reply reply ) {
+		LinkedList<Reply> list = replies.get(path);
+		if( list == null ) {
+			replies.put(path, list = new LinkedList<Reply>());
+		}
+		list.add(reply);
+		return this;
+	}
+
+	public synchronized int count( String prefix ) {
+		int result = 0;
+		for( String req : requests ) {
+			if( req.startsWith(prefix) ) result++;
+		}
+		return result;
+	}
+
+	void serve( HttpExchange exchange ) throws IOException {
+		Reply reply;
+		synchronized (this) {
+			requests.add( exchange.getRequestMethod() + " " + exchange.getRequestURI() );
+			lastHeaders = new HashMap<String, List<String>>(exchange.getRequestHeaders());
+			LinkedList<Reply> list = replies.get(exchange.getRequestURI().getPath());
+			reply = list == null ? new Reply(404, "Not found") : list.size()>1 ? list.removeFirst() : list.getFirst();
+		}
+
+		/* consume the request body */
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int len;
+		while( (len=exchange.getRequestBody().read(buffer)) != -1 ) {
+			received.write(buffer, 0, len);
+		}
+		synchronized (this) {
+			lastBody = received.toByteArray();
+		}
+
+		if( rejectGzip && "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")) ) {
+			exchange.sendResponseHeaders(415, -1);
+			exchange.close();
+			return;
+		}
+
+		if( reply.delay > 0 ) try {
+			Thread.sleep(reply.delay);
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+
+		for( Map.Entry<String, String> entry : reply.headers.entrySet() ) {
+			exchange.getResponseHeaders().add(entry.getKey(), entry.getValue());
+		}
+
+		int status = reply.status;
+		byte[] body = reply.body;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		if( reply.ranges && range != null && range.startsWith("bytes=") ) {
+			int from = Integer.parseInt(range.substring(6, range.indexOf('-')));
+			if( from >= body.length ) {
+				exchange.getResponseHeaders().add("Content-Range", "bytes */" + body.length);
+				exchange.sendResponseHeaders(416, -1);
+				exchange.close();
+				return;
+			}
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (body.length-1) + "/" + body.length);
+			body = Arrays.copyOfRange(body, from, body.length);
+			status = 206;
+		}
+		else if( reply.gzip && String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip") ) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream out = new GZIPOutputStream(compressed);
+			out.write(body);
+			out.close();
+			body = compressed.toByteArray();
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+		}
+
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		if( reply.dropAfter >= 0 && reply.dropAfter < body.length ) {
+			/* simulate a dropped connection */
+			out.write(body, 0, reply.dropAfter);
+			out.flush();
+			exchange.close();
+			return;
+		}
+		out.write(body);
+		out.close();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+}
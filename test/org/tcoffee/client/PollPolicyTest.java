@@ -0,0 +1,78 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.tcoffee.client.data.ResultData;
+
+public class PollPolicyTest {
+
+	@Test
+	public void testBackoff() { 
+		PollPolicy policy = new PollPolicy(new ServiceStats());
+		ResultData result = new ResultData();
+		result.service = "regular";
+
+		long delay = policy.nextDelay(result, 0, 0, 60000);
+		assertTrue( delay >= 800 && delay <= 1200 );
+
+		delay = policy.nextDelay(result, 1000, 1000, 60000);
+		assertTrue( delay >= 1600 && delay <= 2400 );
+		
+		delay = policy.nextDelay(result, 30000, 16000, 60000);
+		assertTrue( delay >= 25600 && delay <= 38400 );
+
+		/* never exceeds the max delay */
+		assertEquals( 5000, policy.nextDelay(result, 30000, 16000, 5000) );
+	}
+	
+	@Test 
+	public void testDelayFromHistory() { 
+		ServiceStats stats = new ServiceStats();
+		stats.record("expresso", 100000);
+		stats.record("expresso", 120000);
+		stats.record("expresso", 500000);
+		
+		PollPolicy policy = new PollPolicy(stats);
+		ResultData result = new ResultData();
+		result.service = "expresso";
+		result.elapsedTime = 20000;
+
+		/* wait for the expected completion time */
+		long delay = policy.nextDelay(result, 1000, 0, 3600000);
+		assertTrue( delay >= 80000 && delay <= 120000 );
+		
+		/* but not more than the max delay, i.e. the poll sleep, even if the expected time is farther */
+		assertEquals( 5000, policy.nextDelay(result, 1000, 0, 5000) );
+		
+		/* when the expected time is passed use the backoff */
+		result.elapsedTime = 200000;
+		delay = policy.nextDelay(result, 1000, 0, 3600000);
+		assertTrue( delay >= 800 && delay <= 1200 );
+	}
+	
+	@Test 
+	public void testServiceStats() { 
+		File file = new File("testServiceStats.properties");
+		file.delete();
+		
+		ServiceStats stats = new ServiceStats(file);
+		assertNull( stats.median("regular") );
+		
+		for( int i=1; i<=10; i++ ) { 
+			stats.record("regular", i*1000);
+		}
+		assertEquals( Long.valueOf(5000), stats.median("regular") );
+		assertEquals( Long.valueOf(9000), stats.percentile("regular", 90) );
+		
+		/* reload from file */
+		stats = new ServiceStats(file);
+		assertEquals( Long.valueOf(5000), stats.median("regular") );
+		assertEquals( Long.valueOf(10000), stats.percentile("regular", 100) );
+		
+		file.delete();
+	}
+	
+}
@@ -0,0 +1,136 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.ResultItemData;
+import org.tcoffee.client.data.SubmitData;
+import org.tcoffee.client.util.Http;
+import org.tcoffee.client.util.IO;
+import org.tcoffee.client.util.KeyValue;
+
+public class ResultCacheTest {
+
+	private File dir = new File("testResultCache");
+
+	private File out = new File("testResultCacheOut");
+
+	private File input = new File("testResultCache.fa");
+
+	@After
+	public void after() throws IOException {
+		FileUtils.deleteDirectory(dir);
+		FileUtils.deleteDirectory(out);
+		input.delete();
+	}
+
+	@Test
+	public void testKey() throws IOException {
+		ResultCache cache = new ResultCache(dir);
+		IO.writeContent(">seq1\nAAA", input);
+
+		List<KeyValue> params = Arrays.asList(new KeyValue("args", "-in=file:0"), new KeyValue("file:0", input));
+		String key = cache.key("tcoffee/run", params);
+		assertEquals( 40, key.length() );
+		assertEquals( key, cache.key("tcoffee/run", params) );
+		assertFalse( key.equals(cache.key("expresso/run", params)) );
+
+		/* the file content is part of the key */
+		IO.writeContent(">seq1\nAAC", input);
+		assertFalse( key.equals(cache.key("tcoffee/run", params)) );
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		ResultCache cache = new ResultCache(dir);
+		cache.setMaxBytes(2500);
+		IO.writeContent(new String(new char[1000]), input);
+
+		ResultData result = new ResultData();
+		result.status = "Done";
+
+		cache.put("a", new SubmitData(), result, Arrays.asList(input));
+		new File(new File(dir,"a"), ResultCache.RESPONSE).setLastModified(1000);
+		cache.put("b", new SubmitData(), result, Arrays.asList(input));
+		new File(new File(dir,"b"), ResultCache.RESPONSE).setLastModified(2000);
+
+		/* touch the oldest one */
+		assertNotNull( cache.get("a") );
+		assertTrue( cache.item("a", 0).exists() );
+
+		cache.put("c", new SubmitData(), result, Arrays.asList(input));
+		assertNotNull( cache.get("a") );
+		assertNull( cache.get("b") );
+		assertNotNull( cache.get("c") );
+	}
+
+	@Test
+	public void testRunFromCache() throws IOException {
+		final AtomicInteger submits = new AtomicInteger();
+
+		TCoffeeClient client = new TCoffeeClient("localhost", "bundle") {
+			@Override
+			SubmitData submitAlignment(String uri, List<KeyValue> pairs) {
+				submits.incrementAndGet();
+				SubmitData result = new SubmitData();
+				result.requestId = "99";
+				result.url = "/99.html";
+				return result;
+			}
+
+			@Override
+			ResultData waitForResult(String requestId) {
+				ResultData result = new ResultData();
+				result.status = "Done";
+				result.items = new ArrayList<ResultItemData>();
+				ResultItemData item = new ResultItemData();
+				item.webpath = "/data/99/result.aln";
+				item.name = "result.aln";
+				result.items.add(item);
+				return result;
+			}
+		};
+		client.http = new Http() {
+			public File getFile(String uri, File target) {
+				try {
+					IO.writeContent("CLUSTAL W", target);
+				}
+				catch( IOException e ) {
+					throw new RuntimeException(e);
+				}
+				return target;
+			}
+		};
+		client.setResultCache(new ResultCache(dir));
+		client.setOutputPath(out);
+
+		IO.writeContent(">seq1\nAAA", input);
+		client.run("-in=file:0", Arrays.asList(input));
+		assertEquals( 1, submits.get() );
+
+		/* the second run is served by the cache */
+		FileUtils.deleteDirectory(out);
+		client.setOutputPath(out);
+		client.run("-in=file:0", Arrays.asList(input));
+		assertEquals( 1, submits.get() );
+		assertEquals( "99", client.getRequestId() );
+		assertTrue( client.getResult().isStatusDONE() );
+		assertEquals( "CLUSTAL W", IO.readContentAsString(new File(out, "result.aln")).trim() );
+
+		/* a different input is submitted */
+		IO.writeContent(">seq1\nAAC", input);
+		client.run("-in=file:0", Arrays.asList(input));
+		assertEquals( 2, submits.get() );
+	}
+
+}
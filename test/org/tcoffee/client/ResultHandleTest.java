@@ -0,0 +1,113 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultHandleTest {
+
+	static final String RESULT = "<response><result><status>Done</status>" +
+			"<item><webpath>/data/1/tcoffee.log</webpath><type>system_file</type><name>tcoffee.log</name><format>log</format></item>" +
+			"<item><webpath>/data/1/seq.aln</webpath><type>msa</type><name>seq.aln</name><format>clustalw_aln</format></item>" +
+			"<item><webpath>/data/1/seq.score_ascii</webpath><type>msa</type><name>seq.score_ascii</name><format>score_ascii</format></item>" +
+			"</result></response>";
+	
+	private LocalServer server;
+	
+	private File root;
+	
+	private TCoffeeClient client;
+	
+	@Before
+	public void before() throws Exception { 
+		server = new LocalServer();
+		server.reply("/api/bundle/result", 200, RESULT);
+		server.reply("/data/1/seq.score_ascii", 200, "SCORE=87");
+		server.reply("/data/1/seq.aln", 200, "CLUSTAL");
+
+		root = new File("testResultHandle");
+		client = new TCoffeeClient(server.host(), "bundle");
+		client.setOutputPath(root);
+		client.setPollSleepSecs(0);
+	}
+	
+	@After
+	public void after() throws Exception { 
+		server.stop();
+		FileUtils.deleteDirectory(root);
+	}
+	
+	@Test
+	public void testOnDemand() throws Exception { 
+		ResultHandle handle = client.getResultHandle("1");
+		assertTrue( handle.isDone() );
+		assertEquals( 3, handle.getItems().size() );
+		assertEquals( 0, server.count("GET /data/") );
+		
+		/* just the accessed item is downloaded, once */
+		ResultHandle.Item score = handle.find("score_ascii");
+		assertFalse( score.isFetched() );
+		assertEquals( "SCORE=87", new String(score.getBytes()) );
+		assertTrue( score.isFetched() );
+		assertEquals( new File(root, "seq.score_ascii"), score.getFile() );
+		
+		InputStream in = score.openStream();
+		try { 
+			assertEquals( "SCORE=87", IOUtils.toString(in) );
+		}
+		finally { 
+			in.close();
+		}
+		assertEquals( 1, server.count("GET /data/") );
+		assertFalse( handle.get("seq.aln").isFetched() );
+		
+		/* by type and by name */
+		assertEquals( "seq.aln", handle.find("msa").getName() );
+		assertNull( handle.find("pdb") );
+		assertNull( handle.get("seq.pdb") );
+	}
+	
+	@Test
+	public void testFetchAfterDeadline() throws Exception { 
+		client.setTimeoutSecs(1);
+		ResultHandle handle = client.getResultHandle("1");
+		Thread.sleep(1200);
+		
+		/* the download is not limited by the deadline of the status request */
+		assertEquals( "SCORE=87", new String(handle.find("score_ascii").getBytes()) );
+	}
+	
+	@Test
+	public void testFetchFromRequestHost() throws Exception { 
+		ResultHandle handle = client.getResultHandle("1");
+		assertEquals( server.host(), handle.getHost() );
+		
+		/* the client moved to another host meanwhile */
+		client.setHost("127.0.0.1:1");
+		assertEquals( "CLUSTAL", new String(handle.get("seq.aln").getBytes()) );
+		assertEquals( 1, server.count("GET /data/1/seq.aln") );
+	}
+	
+	@Test
+	public void testLazyRun() throws Exception { 
+		server.reply("/api/bundle/run", 200, "<response><submit><request-id>1</request-id></submit></response>");
+		client.setLazyDownload(true);
+		client.run("-in=x", null);
+		
+		/* the request completed without downloading any file */
+		assertEquals( 0, server.count("GET /data/") );
+		ResultHandle handle = client.getResultHandle();
+		assertEquals( "1", handle.getRequestId() );
+		assertEquals( "CLUSTAL", new String(handle.find("clustalw_aln").getBytes()) );
+		assertEquals( 1, server.count("GET /data/") );
+		assertEquals( 1, root.list().length );
+	}
+	
+}
@@ -0,0 +1,117 @@
+package org.tcoffee.client;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.exception.WaitResultTimeout;
+import org.tcoffee.client.util.ResultFuture;
+
+public class ResultPollerTest {
+
+	@Test
+	public void testWatchManyRequests() throws Exception {
+
+		final Map<String,AtomicInteger> polls = new ConcurrentHashMap<String, AtomicInteger>();
+
+		/*
+		 * each request completes on the third poll
+		 */
+		TCoffeeClient client = new TCoffeeClient("localhost", "bundle") {
+			@Override
+			ResultData getResultFor(String requestId) {
+				polls.get(requestId).incrementAndGet();
+				ResultData result = new ResultData();
+				result.status = polls.get(requestId).get() < 3 ? "Running" : "Done";
+				return result;
+			}
+		};
+		client.setPollSleepSecs(0);
+
+		ResultPoller poller = new ResultPoller(client, 1, 10, 8);
+		try {
+			List<ResultFuture<ResultData>> futures = new ArrayList<ResultFuture<ResultData>>();
+			for( int i=0; i<100; i++ ) {
+				polls.put("rid-"+i, new AtomicInteger());
+				futures.add( poller.watch("rid-"+i) );
+			}
+
+			for( ResultFuture<ResultData> future : futures ) {
+				assertTrue( future.get(5, TimeUnit.SECONDS).isStatusDONE() );
+			}
+
+			assertEquals( 0, poller.size() );
+			for( AtomicInteger count : polls.values() ) {
+				assertEquals( 3, count.get() );
+			}
+		}
+		finally {
+			poller.shutdown();
+		}
+	}
+
+	@Test
+	public void testWatchUnexpectedError() throws Exception {
+
+		TCoffeeClient client = new TCoffeeClient("localhost", "bundle") {
+			@Override
+			ResultData getResultFor(String requestId) {
+				if( "npe".equals(requestId) ) throw new NullPointerException();
+				return null;
+			}
+		};
+
+		ResultPoller poller = new ResultPoller(client, 1, 10, 8);
+		try {
+			for( String rid : new String[] { "npe", "missing" } ) {
+				try {
+					poller.watch(rid).get(5, TimeUnit.SECONDS);
+					fail();
+				}
+				catch( ExecutionException e ) {
+					assertTrue( e.getCause() instanceof RuntimeException );
+				}
+			}
+			assertEquals( 0, poller.size() );
+		}
+		finally {
+			poller.shutdown();
+		}
+	}
+
+	@Test
+	public void testWatchTimeout() throws Exception {
+
+		TCoffeeClient client = new TCoffeeClient("localhost", "bundle") {
+			@Override
+			ResultData getResultFor(String requestId) {
+				ResultData result = new ResultData();
+				result.status = "Running";
+				return result;
+			}
+		};
+		client.setPollSleepSecs(0);
+		client.setPollTimeoutSecs(0);
+
+		ResultPoller poller = new ResultPoller(client, 1, 10, 8);
+		try {
+			poller.watch("xxx").get(5, TimeUnit.SECONDS);
+			fail();
+		}
+		catch( ExecutionException e ) {
+			assertTrue( e.getCause() instanceof WaitResultTimeout );
+		}
+		finally {
+			poller.shutdown();
+		}
+	}
+
+}
@@ -2,10 +2,13 @@ package org.tcoffee.client;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import org.tcoffee.client.exception.ClientException;
 import org.tcoffee.client.util.IO;
 
 public class TClientTest {
@@ -23,10 +26,29 @@ public class TClientTest {
 		if( file.exists() ) file.delete();
 		IO.writeContent("Hola", file);
 		
-		/* read the content of the specified file */
-		assertEquals( "Hola", TClient.normalizeFiles("file:./testNormalizeFile"));
+		/* the specified file is uploaded as it is */
+		assertEquals( new File("./testNormalizeFile"), TClient.normalizeFiles("file:./testNormalizeFile"));
 		
 		file.delete();
+		try { 
+			TClient.normalizeFiles("file:./testNormalizeFile");
+			fail();
+		}
+		catch( ClientException e ) { 
+			assertTrue( e.getMessage().contains("testNormalizeFile") );
+		}
+	}
+	
+	@Test
+	public void testStdin() throws IOException { 
+		byte[] data = new byte[] { 0, 1, 2, (byte)0xff };
+		File file = TClient.stdin(new ByteArrayInputStream(data));
+		
+		assertEquals( "stdin", file.getName() );
+		assertArrayEquals( data, FileUtils.readFileToByteArray(file) );
+		
+		/* the standard input is read just once */
+		assertSame( file, TClient.stdin(new ByteArrayInputStream(new byte[0])) );
 	}
 	
 }
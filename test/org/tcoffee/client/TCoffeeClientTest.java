@@ -3,11 +3,16 @@ package org.tcoffee.client;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.StatusLine;
@@ -35,6 +40,19 @@ public class TCoffeeClientTest {
 		client = new TCoffeeClient("localhost", "bundle");
 	}
 	
+	/*
+	 * mock an http response having the specified content 
+	 */
+	static HttpResponse response( int code, String content ) { 
+		ProtocolVersion ver = new ProtocolVersion("HTTP", 1, 1);
+		HttpResponse response = new BasicHttpResponse(new BasicStatusLine( ver, code, "OK"));
+
+		BasicHttpEntity entity = new BasicHttpEntity();
+		entity.setContent( new ByteArrayInputStream(content.getBytes()) );
+		response.setEntity(entity);
+		return response;
+	}
+	
 	@Test
 	public void testGetUrl() { 
 		
@@ -178,8 +196,8 @@ public class TCoffeeClientTest {
 		
 		client.http = new Http() {
 			@Override
-			public String getXml(String path) {
-				return resultXml;
+			protected HttpResponse get(String uri) {
+				return response(200, resultXml);
 			} };
 		
 		ResultData result = client.waitForResult("xxx");
@@ -266,6 +284,244 @@ public class TCoffeeClientTest {
 		FILE2.delete();
 	}
 	
+	@Test 
+	public void testPrintResultLog() throws IOException { 
+		final File root = new File("testPrintResultLog");
+		client.setOutputPath(root);
+		client.http = new Http() {
+			@Override
+			public File getFile(String uri, File target) {
+				try {
+					IO.writeContent("T-COFFEE Version_9.01", target);
+					return target;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			} }; 
+		
+		ResultItemData item = new ResultItemData();
+		item.webpath = "/path/to/tcoffee.log";
+		item.name = "tcoffee.log";
+		item.type = "system_file";
+		item.format = "log";
+		
+		ResultData result = new ResultData();
+		result.items = new ArrayList<ResultItemData>();
+		result.items.add(item);
+		
+		try { 
+			client.downloadResultItems(result);
+			
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			client.printResultLog(new PrintStream(buffer));
+			assertEquals( "T-COFFEE Version_9.01", buffer.toString().trim() );
+		}
+		finally { 
+			FileUtils.deleteDirectory(root);
+		}
+	}
+	
+	@Test 
+	public void testResultLogPrintedOnce() throws IOException { 
+		LocalServer server = new LocalServer();
+		server.reply("/api/bundle/result", 200, "<response><result><status>Done</status>" +
+				"<item><webpath>/data/1/tcoffee.log</webpath><type>system_file</type><name>tcoffee.log</name><format>log</format></item>" +
+				"<item><webpath>/data/1/seq.aln</webpath><type>msa</type><name>seq.aln</name><format>clustalw_aln</format></item>" +
+				"<item><webpath>/data/1/seq.dnd</webpath><type>tree</type><name>seq.dnd</name><format>newick</format></item>" +
+				"</result></response>");
+		server.reply("/data/1/tcoffee.log", 200, "T-COFFEE Version_9.01");
+		server.reply("/data/1/seq.aln", 200, "CLUSTAL");
+		server.reply("/data/1/seq.dnd", 200, "(a,b);");
+
+		File root = new File("testResultLogPrintedOnce");
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try { 
+			client = new TCoffeeClient(server.host(), "bundle");
+			client.setOutputPath(root);
+			client.setResultLogStream(new PrintStream(buffer, true));
+			client.downloadFiles("1");
+			assertEquals( "T-COFFEE Version_9.01", buffer.toString().trim() );
+			
+			/* the other downloads do not reset the printed log */
+			buffer.reset();
+			client.printResultLog(new PrintStream(buffer, true));
+			assertEquals( "", buffer.toString() );
+			assertEquals( 3, server.count("GET /data/") );
+		}
+		finally { 
+			server.stop();
+			FileUtils.deleteDirectory(root);
+		}
+	}
+	
+	static String result( String status ) { 
+		return "<response><result><status>" + status + "</status>" +
+				"<item><webpath>/data/1/tcoffee.log</webpath><type>system_file</type><name>tcoffee.log</name><format>log</format></item>" +
+				"</result></response>";
+	}
+	
+	@Test 
+	public void testFollow() throws IOException { 
+		LocalServer server = new LocalServer();
+		server.reply("/api/bundle/run", 200, "<response><submit><request-id>1</request-id></submit></response>");
+		server.reply("/api/bundle/result", 200, result("Running"));
+		server.reply("/api/bundle/result", 200, result("Running"));
+		server.reply("/api/bundle/result", 200, result("Done"));
+		
+		/* the log grows while the request is running */
+		server.reply("/data/1/tcoffee.log", new LocalServer.Reply(200, "abc").ranges());
+		server.reply("/data/1/tcoffee.log", new LocalServer.Reply(200, "abcdef").ranges());
+		server.reply("/data/1/tcoffee.log", new LocalServer.Reply(200, "abcdefghi").ranges());
+		
+		File root = new File("testFollow");
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try { 
+			client = new TCoffeeClient(server.host(), "bundle");
+			client.setPollSleepSecs(0);
+			client.setOutputPath(root);
+			client.setFollowStream(new PrintStream(buffer));
+			client.run("-in=x", null);
+
+			/* each poll fetched only the new bytes */
+			assertEquals( "abcdefghi", buffer.toString() );
+			assertEquals( "abcdefghi", IO.readContentAsString(new File(root, "tcoffee.log")).trim() );
+			assertEquals( 4, server.count("GET /data/1/tcoffee.log") );
+			assertEquals( "bytes=9-", server.lastHeaders.get("Range").get(0) );
+		}
+		finally { 
+			server.stop();
+			FileUtils.deleteDirectory(root);
+		}
+	}
+	
+	@Test 
+	public void testPipe() throws IOException { 
+		LocalServer server = new LocalServer();
+		server.reply("/api/bundle/result", 200, "<response><result><status>Done</status>" +
+				"<item><webpath>/data/1/tcoffee.log</webpath><type>system_file</type><name>tcoffee.log</name><format>log</format></item>" +
+				"<item><webpath>/data/1/seq.aln</webpath><type>msa</type><name>seq.aln</name><format>clustalw_aln</format></item>" +
+				"<item><webpath>/data/1/seq.fasta_aln</webpath><type>msa</type><name>seq.fasta_aln</name><format>fasta_aln</format></item>" +
+				"</result></response>");
+		server.reply("/data/1/seq.fasta_aln", 200, ">1aboA\nNGQGWVPSNYITPVN");
+		
+		File root = new File("testPipe");
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try { 
+			client = new TCoffeeClient(server.host(), "bundle");
+			client.setOutputPath(root);
+			client.setPipe("fasta_aln", buffer);
+			client.downloadFiles("1");
+			
+			/* just the selected item is downloaded, nothing is saved */
+			assertEquals( ">1aboA\nNGQGWVPSNYITPVN", buffer.toString() );
+			assertEquals( 1, server.count("GET /data/") );
+			assertEquals( 0, root.list().length );
+			
+			/* an item selected by type */
+			assertEquals( "seq.aln", client.findItem(client.getResult(), "msa").name );
+			assertNull( client.findItem(client.getResult(), "pdb") );
+		}
+		finally { 
+			server.stop();
+			FileUtils.deleteDirectory(root);
+		}
+	}
+	
+	@Test 
+	public void testItemFilter() throws IOException { 
+		LocalServer server = new LocalServer();
+		server.reply("/api/bundle/result", 200, "<response><result><status>Done</status>" +
+				"<item><webpath>/data/1/tcoffee.log</webpath><type>system_file</type><name>tcoffee.log</name><format>log</format></item>" +
+				"<item><webpath>/data/1/seq.aln</webpath><type>msa</type><name>seq.aln</name><format>clustalw_aln</format></item>" +
+				"<item><webpath>/data/1/seq.html</webpath><type>msa</type><name>seq.html</name><format>score_html</format></item>" +
+				"<item><webpath>/data/1/seq.dnd</webpath><type>tree</type><name>seq.dnd</name><format>newick</format></item>" +
+				"<item><webpath>/data/1/seq.fa</webpath><type>input_file</type><name>seq.fa</name><format>fasta_seq</format></item>" +
+				"</result></response>");
+		server.reply("/data/1/seq.aln", 200, "CLUSTAL");
+		server.reply("/data/1/seq.dnd", 200, "(a,b);");
+
+		File root = new File("testItemFilter");
+		try { 
+			client = new TCoffeeClient(server.host(), "bundle");
+			client.setOutputPath(root);
+			client.setIncludeInpoutDownload(true);
+			client.setItemFilter(new ItemFilter("type:msa,name:*.dnd", "format:*html"));
+			client.downloadFiles("1");
+			
+			/* the other items are never requested */
+			assertEquals( 2, server.count("GET /data/") );
+			assertEquals( "CLUSTAL", FileUtils.readFileToString(new File(root, "seq.aln")) );
+			assertEquals( "(a,b);", FileUtils.readFileToString(new File(root, "seq.dnd")) );
+			assertEquals( 2, root.list().length );
+		}
+		finally { 
+			server.stop();
+			FileUtils.deleteDirectory(root);
+		}
+	}
+	
+	@Test 
+	public void testDownloadResultItemsConcurrently() throws IOException { 
+		final File root = new File("testDownloadResultItemsConcurrently");
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		client.http = new Http() {
+			@Override
+			public File getFile(String uri, File target) {
+				int n = running.incrementAndGet();
+				synchronized (maxRunning) {
+					if( n > maxRunning.get() ) maxRunning.set(n);
+				}
+				try {
+					Thread.sleep(20);
+					IO.writeContent(uri, target);
+					order.add(target.getName());
+					return target;
+				} 
+				catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				finally { 
+					running.decrementAndGet();
+				}
+			} }; 
+
+		ResultData result = new ResultData();
+		result.items = new ArrayList<ResultItemData>();
+		for( int i=0; i<8; i++ ) { 
+			ResultItemData item = new ResultItemData();
+			item.webpath = "/data/x/sub/file" + i + ".aln";
+			item.name = "sub/file" + i + ".aln";
+			result.items.add(item);
+		}
+		ResultItemData log = new ResultItemData();
+		log.webpath = "/data/x/result.log";
+		log.name = "result.log";
+		log.type = "system_file";
+		log.format = "log";
+		result.items.add(log);
+
+		client.setOutputPath(root);
+		client.setUseFlatPath(false);
+		client.setDownloadParallelism(3);
+		try { 
+			client.downloadResultItems(result);
+			
+			assertEquals( 9, order.size() );
+			assertEquals( "result.log", order.get(0) );
+			assertEquals( 3, maxRunning.get() );
+			assertEquals( "http://localhost/data/x/result.log", client.getResultLog().trim() );
+			for( int i=0; i<8; i++ ) { 
+				assertTrue( new File(root, "sub/file" + i + ".aln").exists() );
+			}
+		}
+		finally { 
+			FileUtils.deleteDirectory(root);
+		}
+	}
+	
 
 	
 	@Test
@@ -290,8 +546,8 @@ public class TCoffeeClientTest {
 		
 		
 		client.http = new Http() {
-			public String getXml(String uri) {
-				return xmlResponse;
+			protected HttpResponse get(String uri) {
+				return response(200, xmlResponse);
 			} };
 		
 		
@@ -321,8 +577,8 @@ public class TCoffeeClientTest {
 		
 		client.http = new Http() {
 			@Override
-			public String getXml(String uri) {
-				return xml;
+			protected HttpResponse get(String uri) {
+				return response(200, xml);
 			} };
 			
 		client.ping();
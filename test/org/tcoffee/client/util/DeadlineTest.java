@@ -0,0 +1,103 @@
+package org.tcoffee.client.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tcoffee.client.LocalServer;
+import org.tcoffee.client.TCoffeeClient;
+import org.tcoffee.client.exception.DeadlineExceededException;
+import org.tcoffee.client.exception.HttpResponseException;
+
+public class DeadlineTest {
+
+	private LocalServer server;
+
+	@Before
+	public void before() throws Exception {
+		server = new LocalServer();
+	}
+
+	@After
+	public void after() {
+		Http.setDefaultRetry(null);
+		server.stop();
+	}
+
+	@Test
+	public void testBound() {
+		Deadline deadline = Deadline.in(60 * 1000);
+		assertFalse( deadline.isExpired() );
+		assertEquals( 1000, deadline.bound(1000) );
+		assertTrue( deadline.bound(120 * 1000) <= 60 * 1000 );
+
+		Deadline expired = Deadline.in(0);
+		assertTrue( expired.isExpired() );
+		assertEquals( 0, expired.remaining() );
+		assertEquals( 1, expired.bound(1000) );
+		try {
+			expired.check("test");
+			fail();
+		}
+		catch( DeadlineExceededException e ) {
+			assertTrue( e.getMessage().contains("test") );
+		}
+	}
+
+	@Test
+	public void testHungRequest() {
+		server.reply("/slow", new LocalServer.Reply(200, "<response/>").delay(5000));
+
+		Http http = new Http();
+		http.setDeadline(Deadline.in(300));
+		long begin = System.currentTimeMillis();
+		try {
+			http.getXml("http://" + server.host() + "/slow");
+			fail();
+		}
+		catch( DeadlineExceededException e ) {
+			/* failed on the deadline expiration, without waiting for the server */
+			assertTrue( System.currentTimeMillis()-begin < 3000 );
+		}
+	}
+
+	@Test
+	public void testNoRetryBeyondDeadline() {
+		server.reply("/busy", 503, "Busy");
+
+		Http http = new Http();
+		http.setRetry(new Retry(5, 2000, 2000));
+		http.setDeadline(Deadline.in(1000));
+		long begin = System.currentTimeMillis();
+		try {
+			http.getResponse("http://" + server.host() + "/busy");
+			fail();
+		}
+		catch( HttpResponseException e ) {
+			assertEquals( 503, e.getStatusCode() );
+			assertEquals( 1, server.count("GET /busy") );
+			assertTrue( System.currentTimeMillis()-begin < 1000 );
+		}
+	}
+
+	@Test
+	public void testOperationTimeout() {
+		server.reply("/api/bundle/run", 200, "<response><submit><request-id>1</request-id></submit></response>");
+		server.reply("/api/bundle/result", 200, "<response><result><status>Running</status></result></response>");
+
+		TCoffeeClient client = new TCoffeeClient(server.host(), "bundle");
+		client.setPollSleepSecs(5);
+		client.setTimeoutSecs(1);
+		long begin = System.currentTimeMillis();
+		try {
+			client.run("-in=x", null);
+			fail();
+		}
+		catch( DeadlineExceededException e ) {
+			/* the poll sleep is cut to the time left */
+			assertTrue( System.currentTimeMillis()-begin < 3000 );
+		}
+	}
+
+}
@@ -0,0 +1,419 @@
+package org.tcoffee.client.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tcoffee.client.LocalServer;
+import org.tcoffee.client.data.ResponseData;
+import org.tcoffee.client.exception.HttpResponseException;
+import org.tcoffee.client.exception.IncompleteDownloadException;
+
+public class HttpTest {
+
+	private LocalServer server;
+
+	@Before
+	public void before() throws Exception {
+		server = new LocalServer();
+		server.reply("/xml", 200, "<response/>");
+		server.reply("/missing", 404, "Not found");
+		Http.setConnectionLimits(4, 2);
+		Http.setDefaultRetry(new Retry(3, 1, 10));
+	}
+
+	@After
+	public void after() {
+		Http.setConnectionLimits(40, 20);
+		Http.setDefaultRetry(null);
+		server.stop();
+	}
+
+	@Test
+	public void testConnectionReuse() {
+		Http http = new Http();
+		for( int i=0; i<20; i++ ) {
+			assertEquals( "<response/>", http.getXml("http://" + server.host() + "/xml") );
+		}
+
+		/* all the requests used the same connection */
+		assertEquals( 1, Http.getConnectionsInPool() );
+	}
+
+	@Test
+	public void testSameConnectionLimits() {
+		new Http().getXml("http://" + server.host() + "/xml");
+		assertEquals( 1, Http.getConnectionsInPool() );
+
+		/* applying the same settings again, e.g. by an agent command, does not close the pool */
+		Http.setConnectionLimits(4, 2);
+		Http.setGzipUploads(false);
+		assertEquals( 1, Http.getConnectionsInPool() );
+
+		Http.setConnectionLimits(5, 2);
+		assertEquals( 0, Http.getConnectionsInPool() );
+	}
+
+	@Test
+	public void testErrorReleaseConnection() {
+		Http http = new Http();
+		File target = new File("testErrorReleaseConnection.txt");
+		try {
+			for( int i=0; i<10; i++ ) {
+				try {
+					http.getFile("http://" + server.host() + "/missing", target);
+					fail();
+				}
+				catch( HttpResponseException e ) {
+					/* expected */
+				}
+			}
+		}
+		finally {
+			target.delete();
+		}
+
+		/* the pool has not been exhausted by the failed requests */
+		assertEquals( "<response/>", http.getXml("http://" + server.host() + "/xml") );
+		assertTrue( Http.getConnectionsInPool() <= 2 );
+	}
+
+	@Test
+	public void testGetResponse() {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><response><result><status>Done</status>");
+		for( int i=0; i<500; i++ ) {
+			xml.append("<item><webpath>/data/x/file" + i + ".aln</webpath><name>file" + i + ".aln</name><format>aln</format></item>");
+		}
+		xml.append("</result></response>");
+		server.reply("/result", 200, xml.toString());
+		server.reply("/broken", 502, "Bad gateway");
+
+		Http http = new Http();
+		ResponseData response = http.getResponse("http://" + server.host() + "/result");
+		assertEquals( "Done", response.result.status );
+		assertEquals( 500, response.result.items.size() );
+		assertEquals( "file499.aln", response.result.items.get(499).name );
+
+		try {
+			http.getResponse("http://" + server.host() + "/broken");
+			fail();
+		}
+		catch( HttpResponseException e ) {
+			assertTrue( e.getMessage().contains("502") );
+		}
+
+		/* the connection has been released in both cases */
+		assertEquals( 1, Http.getConnectionsInPool() );
+	}
+
+	@Test
+	public void testResumeDownload() throws IOException {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/file", new LocalServer.Reply(200, content).ranges().dropAfter(10));
+		server.reply("/file", new LocalServer.Reply(200, content).ranges());
+
+		File target = new File("testResumeDownload.txt");
+		File part = new File("testResumeDownload.txt.part");
+		try {
+			new Http().getFile("http://" + server.host() + "/file", target);
+
+			assertEquals( content, FileUtils.readFileToString(target) );
+			assertFalse( part.exists() );
+			assertEquals( 2, server.count("GET /file") );
+			assertEquals( "bytes=10-", server.lastHeaders.get("Range").get(0) );
+		}
+		finally {
+			target.delete();
+			part.delete();
+		}
+	}
+
+	@Test
+	public void testResumePartialFile() throws IOException {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/file", new LocalServer.Reply(200, content).ranges());
+
+		/* a partial file left by a previous execution */
+		File target = new File("testResumePartialFile.txt");
+		File part = new File("testResumePartialFile.txt.part");
+		FileUtils.writeStringToFile(part, "0123456789abcdef");
+		try {
+			new Http().getFile("http://" + server.host() + "/file", target);
+			assertEquals( content, FileUtils.readFileToString(target) );
+			assertEquals( "bytes=16-", server.lastHeaders.get("Range").get(0) );
+
+			/* a complete partial file is just renamed */
+			FileUtils.writeStringToFile(part, content);
+			new Http().getFile("http://" + server.host() + "/file", target);
+			assertEquals( content, FileUtils.readFileToString(target) );
+			assertFalse( part.exists() );
+		}
+		finally {
+			target.delete();
+			part.delete();
+		}
+	}
+
+	@Test
+	public void testOversizedPartFile() throws IOException {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/file", new LocalServer.Reply(200, content).ranges().dropAfter(10));
+		server.reply("/file", new LocalServer.Reply(200, content).ranges());
+
+		File target = new File("testOversizedPartFile.txt");
+		final File part = new File("testOversizedPartFile.txt.part");
+		final List<Long> lengths = new ArrayList<Long>();
+		OutputStream watch = new OutputStream() {
+			public void write( int b ) { lengths.add(part.length()); }
+		};
+		try {
+			/* while the content arrives the partial file never holds more than the bytes received */
+			try {
+				new Http().download("http://" + server.host() + "/file", part, new Http.Echo(watch));
+				fail();
+			}
+			catch( IncompleteDownloadException e ) {
+				assertEquals( 10, part.length() );
+			}
+			assertFalse( lengths.isEmpty() );
+			for( Long length : lengths ) {
+				assertTrue( length <= 10 );
+			}
+
+			/* a partial file longer than the content, e.g. a zero filled tail, is not taken as complete */
+			FileUtils.writeByteArrayToFile(part, new byte[content.length() + 10]);
+			new Http().getFile("http://" + server.host() + "/file", target);
+			assertEquals( content, FileUtils.readFileToString(target) );
+			assertFalse( part.exists() );
+		}
+		finally {
+			target.delete();
+			part.delete();
+		}
+	}
+
+	@Test
+	public void testLargeDownload() throws IOException {
+		byte[] content = new byte[3 * BufferPool.BUFFER_SIZE + 123];
+		new Random(1).nextBytes(content);
+		server.reply("/file", new LocalServer.Reply(200, content).ranges().dropAfter(BufferPool.BUFFER_SIZE + 10));
+		server.reply("/file", new LocalServer.Reply(200, content).ranges());
+
+		File target = new File("testLargeDownload.bin");
+		try {
+			new Http().getFile("http://" + server.host() + "/file", target);
+
+			/* the first attempt resumes from the bytes actually received */
+			assertEquals( "bytes=" + (BufferPool.BUFFER_SIZE + 10) + "-", server.lastHeaders.get("Range").get(0) );
+			assertArrayEquals( content, FileUtils.readFileToByteArray(target) );
+			assertTrue( BufferPool.getIdleCount() > 0 );
+		}
+		finally {
+			target.delete();
+			new File("testLargeDownload.bin.part").delete();
+		}
+	}
+
+	@Test
+	public void testEchoDownload() throws IOException {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/log", new LocalServer.Reply(200, content).ranges().dropAfter(20));
+		server.reply("/log", new LocalServer.Reply(200, content).ranges());
+
+		/* a partial file left by a previous execution */
+		File target = new File("testEchoDownload.log");
+		File part = new File("testEchoDownload.log.part");
+		FileUtils.writeStringToFile(part, "0123456789");
+		ByteArrayOutputStream echo = new ByteArrayOutputStream();
+		try {
+			new Http().getFile("http://" + server.host() + "/log", target, echo);
+
+			/* each byte is copied once, the saved ones included */
+			assertEquals( content, FileUtils.readFileToString(target) );
+			assertEquals( content, echo.toString() );
+			assertEquals( "bytes=30-", server.lastHeaders.get("Range").get(0) );
+		}
+		finally {
+			target.delete();
+			part.delete();
+		}
+	}
+
+	@Test
+	public void testGetStream() {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/aln", new LocalServer.Reply(200, content).ranges().dropAfter(10));
+		server.reply("/aln", new LocalServer.Reply(200, content).ranges());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Http().getStream("http://" + server.host() + "/aln", out);
+
+		/* the missing bytes only, nothing saved */
+		assertEquals( content, out.toString() );
+		assertEquals( "bytes=10-", server.lastHeaders.get("Range").get(0) );
+		assertFalse( new File("aln.part").exists() );
+	}
+
+	@Test
+	public void testGetStreamWithoutRanges() {
+		String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+		server.reply("/aln", new LocalServer.Reply(200, content).dropAfter(10));
+		server.reply("/aln", new LocalServer.Reply(200, content));
+
+		/* the bytes already written are skipped */
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Http().getStream("http://" + server.host() + "/aln", out);
+		assertEquals( content, out.toString() );
+	}
+
+	static final String DONE = "<response><result><status>Done</status><elapsed-time>1200</elapsed-time></result></response>";
+
+	@Test
+	public void testGzipResponse() {
+		server.reply("/result", new LocalServer.Reply(200, DONE).gzip());
+
+		ResponseData response = new Http().getResponse("http://" + server.host() + "/result");
+		assertTrue( response.result.isStatusDONE() );
+		assertEquals( "gzip", server.lastHeaders.get("Accept-encoding").get(0) );
+		assertEquals( 1, Http.getConnectionsInPool() );
+	}
+
+	@Test
+	public void testGzipResumeDownload() throws IOException {
+		StringBuilder content = new StringBuilder();
+		Random random = new Random(1);
+		for( int i=0; i<5000; i++ ) content.append("ACGT".charAt(random.nextInt(4)));
+		server.reply("/file", new LocalServer.Reply(200, content.toString()).gzip().ranges().dropAfter(200));
+		server.reply("/file", new LocalServer.Reply(200, content.toString()).gzip().ranges());
+
+		File target = new File("testGzipResumeDownload.txt");
+		try {
+			new Http().getFile("http://" + server.host() + "/file", target);
+
+			/* the missing part is requested uncompressed, since the offset refers to the decompressed content */
+			assertEquals( content.toString(), FileUtils.readFileToString(target) );
+			assertEquals( 2, server.count("GET /file") );
+			assertTrue( server.lastHeaders.get("Range").get(0).startsWith("bytes=") );
+			assertNull( server.lastHeaders.get("Accept-encoding") );
+		}
+		finally {
+			target.delete();
+			new File("testGzipResumeDownload.txt.part").delete();
+		}
+	}
+
+	@Test
+	public void testGzipUpload() throws IOException {
+		server.reply("/run", 200, "<response><submit><request-id>1</request-id></submit></response>");
+		File file = new File("testGzipUpload.fa");
+		FileUtils.writeStringToFile(file, ">1aboA\nNGQGWVPSNYITPVN");
+		Http.setGzipUploads(true);
+		try {
+			List<KeyValue> pairs = new ArrayList<KeyValue>();
+			pairs.add( new KeyValue("file:1", file) );
+			ResponseData response = new Http().postWithResponse("http://" + server.host() + "/run", pairs);
+
+			assertEquals( "1", response.submit.requestId );
+			assertEquals( "gzip", server.lastHeaders.get("Content-encoding").get(0) );
+			String body = IO.readContentAsString(new GZIPInputStream(new ByteArrayInputStream(server.lastBody)));
+			assertTrue( body.contains("NGQGWVPSNYITPVN") );
+		}
+		finally {
+			Http.setGzipUploads(false);
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testUploadProgress() throws IOException {
+		server.reply("/run", 200, "<response><submit><request-id>1</request-id></submit></response>");
+		File file = new File("testUploadProgress.bin");
+		byte[] content = new byte[200 * 1024];
+		new Random(1).nextBytes(content);
+		FileUtils.writeByteArrayToFile(file, content);
+		try {
+			final List<Long> updates = new ArrayList<Long>();
+			Http http = new Http();
+			http.setUploadProgress( new Http.Progress() {
+				public void update(long sent, long total) {
+					assertTrue( sent <= total );
+					updates.add(sent);
+				}} );
+
+			List<KeyValue> pairs = new ArrayList<KeyValue>();
+			pairs.add( new KeyValue("in", file) );
+			http.postWithResponse("http://" + server.host() + "/run", pairs);
+
+			/* the file has been streamed in more chunks */
+			assertTrue( updates.size() > 1 );
+			assertEquals( server.lastBody.length, updates.get(updates.size()-1).longValue() );
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testGzipUploadRejected() {
+		server.reply("/run", 200, "<response><submit><request-id>1</request-id></submit></response>");
+		server.rejectGzip = true;
+		Http.setGzipUploads(true);
+		try {
+			List<KeyValue> pairs = new ArrayList<KeyValue>();
+			pairs.add( new KeyValue("args", "-in=x") );
+			Http http = new Http();
+			assertEquals( "1", http.postWithResponse("http://" + server.host() + "/run", pairs).submit.requestId );
+			assertEquals( 2, server.count("POST /run") );
+			assertTrue( new String(server.lastBody).contains("-in=x") );
+
+			/* the host is not sent compressed content anymore */
+			http.postWithResponse("http://" + server.host() + "/run", pairs);
+			assertEquals( 3, server.count("POST /run") );
+		}
+		finally {
+			Http.setGzipUploads(false);
+		}
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for( int i=0; i<40; i++ ) {
+				results.add( executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return new Http().getXml("http://" + server.host() + "/xml");
+					}}) );
+			}
+
+			for( Future<String> result : results ) {
+				assertEquals( "<response/>", result.get(10, TimeUnit.SECONDS) );
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		/* never more than the per-route limit */
+		assertTrue( Http.getConnectionsInPool() <= 2 );
+	}
+
+}
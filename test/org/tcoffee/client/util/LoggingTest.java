@@ -0,0 +1,45 @@
+package org.tcoffee.client.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+public class LoggingTest {
+
+	static LoggingEvent event( Level level ) {
+		Logger logger = Logger.getLogger(LoggingTest.class);
+		return new LoggingEvent(Logger.class.getName(), logger, level, "message", null);
+	}
+
+	@Test
+	public void testDebugPerThread() {
+		Logging.perThread();
+
+		/* the root level is not changed by a single command */
+		Logging.setDebug(false);
+		assertEquals( Level.DEBUG, Logger.getRootLogger().getLevel() );
+
+		Logging.DebugFilter filter = new Logging.DebugFilter();
+		Sys.redirect(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			assertEquals( Filter.DENY, filter.decide(event(Level.DEBUG)) );
+			assertEquals( Filter.NEUTRAL, filter.decide(event(Level.INFO)) );
+
+			Sys.setDebug(true);
+			assertEquals( Filter.NEUTRAL, filter.decide(event(Level.DEBUG)) );
+		}
+		finally {
+			Sys.redirect(null);
+		}
+
+		/* the debug setting of a thread does not apply to the other ones */
+		assertEquals( Filter.DENY, filter.decide(event(Level.DEBUG)) );
+	}
+}
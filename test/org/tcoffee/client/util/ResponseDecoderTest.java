@@ -0,0 +1,97 @@
+package org.tcoffee.client.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.tcoffee.client.data.ResponseData;
+import org.tcoffee.client.data.ResultData;
+import org.tcoffee.client.data.SubmitData;
+
+public class ResponseDecoderTest {
+
+	@Test
+	public void testDecodeResponse() {
+		String xml =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+			"<response>" +
+			"<status>OK</status>" +
+			"<submit><request-id>999</request-id><status>Running</status><url><![CDATA[/apps/999.html?a=1&b=2]]></url></submit>" +
+			"<result>" +
+				"<bundle>tcoffee</bundle><service>regular</service><title>Regular</title><status>Done</status>" +
+				"<cmdline>t_coffee -in=seq.fa</cmdline><elapsed-time> 1234 </elapsed-time>" +
+				"<item><webpath>/data/1.aln</webpath><label>aln</label><type>msa</type><name>1.aln</name><format>clustalw</format></item>" +
+				"<item><webpath>/data/2.log</webpath><type>system_file</type><name>2.log</name><format>log</format></item>" +
+			"</result>" +
+			"<service><name>regular</name><group>Group</group><title>Title</title><description>Desc</description><cite>Cite</cite></service>" +
+			"<service><name>expresso</name></service>" +
+			"<err><code>400</code><type>Bad request</type><message>Wrong</message></err>" +
+			"</response>";
+
+		ResponseData response = XML.fromXML(xml);
+		assertEquals( "OK", response.status );
+		assertEquals( "999", response.submit.requestId );
+		assertEquals( "Running", response.submit.status );
+		assertEquals( "/apps/999.html?a=1&b=2", response.submit.url );
+
+		ResultData result = response.result;
+		assertEquals( "tcoffee", result.bundle );
+		assertEquals( "regular", result.service );
+		assertEquals( "Regular", result.title );
+		assertTrue( result.isStatusDONE() );
+		assertEquals( "t_coffee -in=seq.fa", result.cmdline );
+		assertEquals( 1234, result.elapsedTime );
+		assertEquals( 2, result.items.size() );
+		assertEquals( "/data/1.aln", result.items.get(0).webpath );
+		assertEquals( "aln", result.items.get(0).label );
+		assertEquals( "msa", result.items.get(0).type );
+		assertEquals( "1.aln", result.items.get(0).name );
+		assertEquals( "clustalw", result.items.get(0).format );
+		assertEquals( "log", result.items.get(1).format );
+
+		assertEquals( 2, response.services.size() );
+		assertEquals( "Cite", response.services.get(0).cite );
+		assertEquals( "Desc", response.services.get(0).description );
+		assertEquals( "expresso", response.services.get(1).name );
+
+		assertEquals( "400", response.err.code );
+		assertEquals( "Bad request", response.err.type );
+		assertEquals( "Wrong", response.err.message );
+	}
+
+	@Test
+	public void testSkipUnknownElements() {
+		String xml =
+			"<response>" +
+			"<extra><nested>x</nested></extra>" +
+			"<result><status>Running</status><progress percent=\"10\"><step>align</step></progress></result>" +
+			"</response>";
+
+		ResponseData response = XML.fromXML(xml);
+		assertTrue( response.result.isStatusRUNNING() );
+		assertNull( response.result.items );
+		assertNull( response.services );
+	}
+
+	@Test
+	public void testFallback() {
+		SubmitData submit = XML.fromXML("<submit><request-id>123</request-id><url>/x.html</url></submit>");
+		assertEquals( "123", submit.requestId );
+		assertEquals( "/x.html", submit.url );
+	}
+
+	@Test
+	public void testRoundTrip() {
+		ResponseData response = new ResponseData();
+		response.submit = new SubmitData();
+		response.submit.requestId = "abc";
+		response.result = new ResultData();
+		response.result.status = "Done";
+		response.result.elapsedTime = 99;
+
+		ResponseData copy = XML.fromXML( XML.toXML(response) );
+		assertEquals( "abc", copy.submit.requestId );
+		assertEquals( "Done", copy.result.status );
+		assertEquals( 99, copy.result.elapsedTime );
+	}
+
+}
@@ -0,0 +1,165 @@
+package org.tcoffee.client.util;
+
+import static org.junit.Assert.*;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.NoHttpResponseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tcoffee.client.LocalServer;
+import org.tcoffee.client.data.ResponseData;
+import org.tcoffee.client.exception.ClientException;
+import org.tcoffee.client.exception.HttpResponseException;
+import org.tcoffee.client.exception.ServerResponseException;
+
+public class RetryTest {
+
+	private LocalServer server;
+
+	@Before
+	public void before() throws Exception {
+		server = new LocalServer();
+		Http.setDefaultRetry(new Retry(4, 1, 10));
+		Retry.resetMetrics();
+	}
+
+	@After
+	public void after() {
+		Http.setDefaultRetry(null);
+		server.stop();
+	}
+
+	@Test
+	public void testClassification() {
+		/* the request has not been sent */
+		assertTrue( Retry.isRetryable(new HttpResponseException(new ConnectException(), "x"), false) );
+		assertTrue( Retry.isRetryable(new HttpResponseException(503, "x"), false) );
+		assertTrue( Retry.isRetryable(new HttpResponseException(429, "x"), false) );
+
+		/* the request could have been processed */
+		assertTrue( Retry.isRetryable(new HttpResponseException(502, "x"), true) );
+		assertFalse( Retry.isRetryable(new HttpResponseException(502, "x"), false) );
+		assertTrue( Retry.isRetryable(new HttpResponseException(new NoHttpResponseException("x"), "x"), true) );
+		assertFalse( Retry.isRetryable(new HttpResponseException(new NoHttpResponseException("x"), "x"), false) );
+		assertTrue( Retry.isRetryable(new ClientException(new SocketTimeoutException()), true) );
+
+		/* fatal */
+		assertFalse( Retry.isRetryable(new HttpResponseException(404, "x"), true) );
+		assertFalse( Retry.isRetryable(new HttpResponseException(new UnknownHostException(), "x"), true) );
+		assertFalse( Retry.isRetryable(new ServerResponseException("x"), true) );
+		assertFalse( Retry.isRetryable(new ClientException("x"), true) );
+	}
+
+	@Test
+	public void testDelay() {
+		Retry retry = new Retry(10, 100, 1000);
+		List<Long> delays = new ArrayList<Long>();
+		for( int i=1; i<=6; i++ ) {
+			delays.add( retry.delay(i) );
+		}
+
+		assertTrue( delays.get(0) >= 80 && delays.get(0) <= 120 );
+		assertTrue( delays.get(2) >= 320 && delays.get(2) <= 480 );
+		/* capped */
+		assertTrue( delays.get(5) >= 800 && delays.get(5) <= 1200 );
+	}
+
+	@Test
+	public void testRetryGet() {
+		server.reply("/api/result", 503, "Service unavailable");
+		server.reply("/api/result", 502, "Bad gateway");
+		server.reply("/api/result", 200, "<response><status>OK</status></response>");
+
+		assertEquals( "OK", new Http().getResponse("http://" + server.host() + "/api/result").status );
+		assertEquals( 3, server.count("GET /api/result") );
+		assertEquals( 2, Retry.getRetries() );
+		assertEquals( 0, Retry.getFailures() );
+	}
+
+	@Test
+	public void testRetryGetFailure() {
+		server.reply("/api/result", 504, "Timeout");
+
+		try {
+			new Http().getResponse("http://" + server.host() + "/api/result");
+			fail();
+		}
+		catch( HttpResponseException e ) {
+			assertEquals( 504, e.getStatusCode() );
+		}
+		assertEquals( 4, server.count("GET /api/result") );
+		assertEquals( 1, Retry.getFailures() );
+	}
+
+	@Test
+	public void testNoRetryOnFatal() {
+		server.reply("/api/result", 404, "Not found");
+
+		try {
+			new Http().getResponse("http://" + server.host() + "/api/result");
+			fail();
+		}
+		catch( HttpResponseException e ) {
+			assertEquals( 404, e.getStatusCode() );
+		}
+		assertEquals( 1, server.count("GET /api/result") );
+		assertEquals( 0, Retry.getRetries() );
+	}
+
+	@Test
+	public void testPost() {
+		/* the server could have accepted the request, it is not submitted again */
+		server.reply("/api/run", 502, "Bad gateway");
+		try {
+			new Http().postWithResponse("http://" + server.host() + "/api/run", new ArrayList<KeyValue>());
+			fail();
+		}
+		catch( HttpResponseException e ) {
+			assertEquals( 502, e.getStatusCode() );
+		}
+		assertEquals( 1, server.count("POST /api/run") );
+
+		/* the server declined the request */
+		server.reply("/api/submit", 503, "Service unavailable");
+		server.reply("/api/submit", 200, "<response><submit><request-id>1</request-id></submit></response>");
+		ResponseData response = new Http().postWithResponse("http://" + server.host() + "/api/submit", new ArrayList<KeyValue>());
+		assertEquals( "1", response.submit.requestId );
+		assertEquals( 2, server.count("POST /api/submit") );
+	}
+
+	@Test
+	public void testPostConnectionRefused() {
+		try {
+			new Http().postWithResponse("http://127.0.0.1:1/api/run", new ArrayList<KeyValue>());
+			fail();
+		}
+		catch( HttpResponseException e ) {
+			assertTrue( e.getCause() instanceof ConnectException );
+		}
+
+		/* never sent, so it has been retried */
+		assertEquals( 3, Retry.getRetries() );
+	}
+
+	@Test
+	public void testNone() {
+		server.reply("/api/result", 503, "Service unavailable");
+		Http http = new Http();
+		http.setRetry(Retry.NONE);
+		try {
+			http.getResponse("http://" + server.host() + "/api/result");
+			fail();
+		}
+		catch( HttpResponseException e ) {
+			assertEquals( 503, e.getStatusCode() );
+		}
+		assertEquals( 1, server.count("GET /api/result") );
+	}
+
+}